@@ -0,0 +1,401 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.takashiharano.binconv.converter.ExecutionPlan;
+import com.takashiharano.binconv.converter.ExecutionPlanner;
+import com.takashiharano.binconv.converter.StreamConverter;
+import com.takashiharano.binconv.converter.StreamRunner;
+import com.takashiharano.binconv.util.FileUtil;
+import com.takashiharano.binconv.util.JobExecutor;
+import com.takashiharano.binconv.util.Log;
+import com.takashiharano.binconv.util.StrUtil;
+
+/**
+ * Runs many conversions in one JVM. (-batch)<br>
+ * The jobs are given by a manifest file, one job per line. The paths that
+ * contain spaces are quoted with "", and the options after the paths apply
+ * to the job only. Empty lines and the lines starting with # are ignored.
+ *
+ * <pre>
+ * # MODE SRC_FILE_PATH DEST_FILE_PATH [OPTIONS]
+ * tohex image.jpg image.txt
+ * frombase64 "my photo.txt" "my photo.jpg" -newline 76
+ * </pre>
+ *
+ * Or, the files in a directory that match a glob pattern are converted with
+ * a mode. The name of the destination file is the source name with the
+ * format name added as the extension (to&lt;FORMAT&gt;), or with it removed
+ * (from&lt;FORMAT&gt;; ".bin" is added if the source does not have it).
+ *
+ * <pre>
+ * -batch -tohex -i &lt;SRC_DIR&gt; -glob "*.jpg" -o &lt;DEST_DIR&gt;
+ * </pre>
+ *
+ * With -recursive, the files in the subdirectories are converted as well, and
+ * the directory tree is mirrored under the destination directory.<br>
+ * <br>
+ * The other options on the command line apply to every job. The jobs run one
+ * by one through the converter of the mode, or -jobs at a time, and a failed
+ * job does not stop the rest. The concurrent jobs share the heap budget. The
+ * summary table of the jobs is printed at the end in the order of the jobs,
+ * not in the order they finished.
+ */
+public class BatchRunner {
+
+  private static final String[] JOB_OPTIONS = { "batch", "glob", "i", "jobs", "o", "recursive" };
+  private static final int JOBS_PER_PROCESSOR = 4;
+  private static final int MAX_JOBS = 1024;
+
+  /**
+   * Runs the batch.
+   *
+   * @param option
+   *          the options. -batch has the manifest path, or is empty for the
+   *          directory mode.
+   * @throws IllegalOptionException
+   *           If neither the manifest nor the mode and the directory are
+   *           given
+   */
+  public static void run(Option option) throws IllegalOptionException {
+    List<Job> jobs;
+    String manifestPath = option.get("batch");
+    if (!"".equals(manifestPath)) {
+      jobs = readManifest(manifestPath);
+    } else {
+      jobs = listDirectory(option);
+    }
+    if (jobs == null) {
+      return;
+    }
+
+    Option baseOption = new Option();
+    for (String key : option.keySet()) {
+      if (!Arrays.asList(JOB_OPTIONS).contains(key) && (Main.getFormat(key) == null)) {
+        baseOption.put(key, option.get(key));
+      }
+    }
+
+    int concurrency = getConcurrency(option);
+    long start = System.nanoTime();
+    if (concurrency > 1) {
+      long budget = ExecutionPlanner.getMemoryBudget(option);
+      baseOption.put("maxmem", Long.toString(budget / concurrency));
+      // close() waits for all jobs, so their results are visible after this
+      try (JobExecutor executor = new JobExecutor(concurrency)) {
+        for (Job job : jobs) {
+          executor.submit(() -> job.run(baseOption));
+        }
+      }
+    } else {
+      for (Job job : jobs) {
+        job.run(baseOption);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    printSummary(jobs, elapsed, concurrency);
+  }
+
+  /**
+   * Returns the number of the jobs that run at a time.<br>
+   * 1 unless -jobs is given. "-jobs" without a value or with 0 means 4 per
+   * available processor, since the jobs spend much of their time in I/O.
+   */
+  private static int getConcurrency(Option option) {
+    if (!option.hasOption("jobs")) {
+      return 1;
+    }
+    int n = option.getIntValue("jobs", 0);
+    if (n <= 0) {
+      n = Runtime.getRuntime().availableProcessors() * JOBS_PER_PROCESSOR;
+    }
+    return Math.min(n, MAX_JOBS);
+  }
+
+  /**
+   * Reads the jobs from the manifest.
+   *
+   * @return the jobs, or null if the manifest does not exist
+   */
+  private static List<Job> readManifest(String path) {
+    String text = FileUtil.readText(path);
+    if (text == null) {
+      Log.print("File not found: " + path);
+      return null;
+    }
+    List<Job> jobs = new ArrayList<>();
+    String[] lines = StrUtil.text2array(text);
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i].trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      Job job;
+      List<String> fields = split(line);
+      if (fields.size() < 3) {
+        job = new Job("-", null, null);
+        job.error = "Invalid job at line " + (i + 1) + ": " + line;
+      } else {
+        String mode = fields.get(0);
+        if (mode.startsWith("-")) {
+          mode = mode.substring(1);
+        }
+        job = new Job(mode, fields.get(1), fields.get(2));
+        String[] args = fields.subList(3, fields.size()).toArray(new String[0]);
+        job.option = Main.parseOptions(args);
+      }
+      jobs.add(job);
+    }
+    return jobs;
+  }
+
+  /**
+   * Splits the line by whitespace. The fields quoted with "" can contain
+   * whitespace.
+   */
+  private static List<String> split(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = null;
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+        if (field == null) {
+          field = new StringBuilder();
+        }
+      } else if (!quoted && Character.isWhitespace(c)) {
+        if (field != null) {
+          fields.add(field.toString());
+          field = null;
+        }
+      } else {
+        if (field == null) {
+          field = new StringBuilder();
+        }
+        field.append(c);
+      }
+    }
+    if (field != null) {
+      fields.add(field.toString());
+    }
+    return fields;
+  }
+
+  /**
+   * Lists the jobs for the files in the directory.
+   *
+   * @return the jobs, or null if the directory does not exist
+   */
+  private static List<Job> listDirectory(Option option) throws IllegalOptionException {
+    String mode = null;
+    for (String key : option.keySet()) {
+      if (Main.getFormat(key) != null) {
+        mode = key;
+        break;
+      }
+    }
+    String srcDirPath = option.get("i");
+    if ((mode == null) || (srcDirPath == null)) {
+      throw new IllegalOptionException();
+    }
+    Path srcDir = Paths.get(srcDirPath);
+    if (!Files.isDirectory(srcDir)) {
+      Log.print("Directory not found: " + srcDirPath);
+      return null;
+    }
+    Path destDir = Paths.get(option.get("o", srcDirPath));
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + option.get("glob", "*"));
+    int depth = option.hasOption("recursive") ? Integer.MAX_VALUE : 1;
+
+    List<Path> files;
+    try (Stream<Path> stream = Files.walk(srcDir, depth)) {
+      files = stream.filter(path -> Files.isRegularFile(path) && matcher.matches(path.getFileName())).sorted().collect(Collectors.toList());
+    } catch (IOException | RuntimeException e) {
+      Log.print("Failed to list the directory: " + e);
+      return null;
+    }
+
+    // the list is fixed before the jobs start, so the files written into the
+    // source tree are never picked up
+    List<Job> jobs = new ArrayList<>();
+    for (Path file : files) {
+      Path relPath = srcDir.relativize(file);
+      String destName = getDestName(file.getFileName().toString(), mode);
+      Path destPath = destDir.resolve(relPath).resolveSibling(destName);
+      jobs.add(new Job(mode, file.toString(), destPath.toString()));
+    }
+    return jobs;
+  }
+
+  /**
+   * Returns the destination file name for the directory mode.<br>
+   * e.g., "a.jpg" to "a.jpg.hex" (tohex), "a.jpg.hex" to "a.jpg" (fromhex)
+   */
+  private static String getDestName(String srcName, String mode) {
+    String ext = "." + Main.getFormat(mode);
+    if (mode.startsWith("to")) {
+      return srcName + ext;
+    }
+    if (srcName.endsWith(ext) && (srcName.length() > ext.length())) {
+      return srcName.substring(0, srcName.length() - ext.length());
+    }
+    return srcName + ".bin";
+  }
+
+  private static void printSummary(List<Job> jobs, long elapsed, int concurrency) {
+    String[] header = { "No.", "MODE", "RESULT", "SIZE", "TIME(ms)", "SOURCE -> DEST" };
+    boolean[] right = { true, false, false, true, true, false };
+    List<String[]> rows = new ArrayList<>();
+    rows.add(header);
+    int failed = 0;
+    long totalSize = 0;
+    for (int i = 0; i < jobs.size(); i++) {
+      Job job = jobs.get(i);
+      String target;
+      if (job.error == null) {
+        target = job.srcPath + " -> " + job.destPath;
+        totalSize += job.srcSize;
+      } else {
+        target = ((job.srcPath == null) ? "" : job.srcPath + ": ") + job.error;
+        failed++;
+      }
+      String[] row = { Integer.toString(i + 1), job.mode, ((job.error == null) ? "OK" : "FAILED"), Long.toString(job.srcSize), Long.toString(job.elapsed / 1000000), target };
+      rows.add(row);
+    }
+
+    int[] widths = new int[header.length];
+    for (String[] row : rows) {
+      for (int i = 0; i < row.length; i++) {
+        widths[i] = Math.max(widths[i], row[i].length());
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String[] row : rows) {
+      sb.setLength(0);
+      for (int i = 0; i < row.length; i++) {
+        if (i > 0) {
+          sb.append("  ");
+        }
+        int padLen = widths[i] - row[i].length();
+        if (right[i]) {
+          appendSpaces(sb, padLen);
+        }
+        sb.append(row[i]);
+        if (!right[i] && (i < row.length - 1)) {
+          appendSpaces(sb, padLen);
+        }
+      }
+      Log.print(sb);
+    }
+    String total = jobs.size() + " jobs, " + (jobs.size() - failed) + " OK, " + failed + " failed, " + totalSize + " bytes in " + (elapsed / 1000000) + " ms";
+    if (concurrency > 1) {
+      total += " (" + concurrency + " at a time on " + JobExecutor.getName() + ")";
+    }
+    Log.print(total);
+  }
+
+  private static void appendSpaces(StringBuilder sb, int n) {
+    for (int i = 0; i < n; i++) {
+      sb.append(' ');
+    }
+  }
+
+  /**
+   * A conversion in the batch and its result.
+   */
+  private static class Job {
+
+    private final String mode;
+    private final String srcPath;
+    private final String destPath;
+    private Option option;
+    private String error;
+    private long srcSize;
+    private long elapsed;
+
+    Job(String mode, String srcPath, String destPath) {
+      this.mode = mode;
+      this.srcPath = srcPath;
+      this.destPath = destPath;
+    }
+
+    void run(Option baseOption) {
+      if (error != null) {
+        return;
+      }
+      String format = Main.getFormat(mode);
+      if (format == null) {
+        error = "Unknown mode: " + mode;
+        return;
+      }
+      if (StreamRunner.STDIO.equals(srcPath) || StreamRunner.STDIO.equals(destPath)) {
+        error = "The standard input / output cannot be used in the batch";
+        return;
+      }
+
+      Option jobOption = new Option();
+      jobOption.putAll(baseOption);
+      if (option != null) {
+        jobOption.putAll(option);
+      }
+      jobOption.put(mode, "");
+      jobOption.put("i", srcPath);
+      jobOption.put("o", destPath);
+
+      long start = System.nanoTime();
+      try {
+        StreamConverter converter = (StreamConverter) Main.getConverterInstance(format);
+        ExecutionPlan plan = ExecutionPlanner.plan(format, jobOption);
+        if (jobOption.hasOption("plan")) {
+          Log.error(plan);
+        }
+        srcSize = Math.max(plan.getSourceSize(), 0);
+        StreamRunner.convertFile(converter, plan, jobOption);
+      } catch (IllegalSourceException e) {
+        error = "ERROR: " + e.getMessage();
+      } catch (FileNotFoundException e) {
+        error = e.getMessage();
+      } catch (Exception e) {
+        error = e.toString();
+      }
+      elapsed = System.nanoTime() - start;
+    }
+
+  }
+
+}
@@ -24,6 +24,10 @@
 package com.takashiharano.binconv;
 
 import com.takashiharano.binconv.converter.Converter;
+import com.takashiharano.binconv.converter.ExecutionPlan;
+import com.takashiharano.binconv.converter.ExecutionPlanner;
+import com.takashiharano.binconv.converter.StreamConverter;
+import com.takashiharano.binconv.converter.StreamRunner;
 import com.takashiharano.binconv.util.Log;
 
 public class Main {
@@ -40,11 +44,20 @@ public class Main {
 
   private static void process(String args[]) throws IllegalOptionException {
     Option option = parseOptions(args);
+    if (option.hasOption("batch")) {
+      BatchRunner.run(option);
+      return;
+    }
     for (int i = 0; i < FORMATS.length; i++) {
       String format = FORMATS[i];
       if (isTargetFormat(option, format)) {
         Converter conv = getConverterInstance(format);
-        conv.process(option);
+        if (conv instanceof StreamConverter) {
+          ExecutionPlan plan = ExecutionPlanner.plan(format, option);
+          StreamRunner.run((StreamConverter) conv, plan, option);
+        } else {
+          conv.process(option);
+        }
         return;
       }
     }
@@ -52,7 +65,16 @@ public class Main {
     throw new IllegalOptionException();
   }
 
-  private static Option parseOptions(String args[]) {
+  /**
+   * Parses the command line arguments.<br>
+   * "-name value" is stored as name=value, and "-name" that is not followed
+   * by a value as name="".
+   *
+   * @param args
+   *          the arguments
+   * @return the options
+   */
+  static Option parseOptions(String args[]) {
     Option option = new Option();
     for (int i = 0; i < args.length; i++) {
       String arg = args[i];
@@ -61,7 +83,7 @@ public class Main {
         String value = "";
         if ((i + 1) < args.length) {
           value = args[i + 1];
-          if (value.startsWith("-")) {
+          if (value.startsWith("-") && !value.equals("-")) {
             value = "";
           } else {
             i++;
@@ -73,6 +95,23 @@ public class Main {
     return option;
   }
 
+  /**
+   * Returns the format of the mode.
+   *
+   * @param mode
+   *          the mode. e.g., "tohex"
+   * @return the format name. e.g., "hex". null if the mode is unknown
+   */
+  static String getFormat(String mode) {
+    for (int i = 0; i < FORMATS.length; i++) {
+      String format = FORMATS[i];
+      if (mode.equals("from" + format) || mode.equals("to" + format)) {
+        return format;
+      }
+    }
+    return null;
+  }
+
   private static boolean isTargetFormat(Option option, String formatName) {
     if (option.hasOption("from" + formatName) || option.hasOption("to" + formatName)) {
       return true;
@@ -101,8 +140,9 @@ public class Main {
 
   static private void printUsage() {
     String module = "binconv.jar";
-    String options = "-<MODE> [SRC] -i <SRC_FILE_PATH> -o <DEST_FILE_PATH> [-newline <POS>] [-addr] [-ascii] [-enc <CHARSET>]";
+    String options = "-<MODE> [SRC] -i <SRC_FILE_PATH>|- -o <DEST_FILE_PATH>|- [-newline <POS>] [-addr] [-ascii|-text] [-squeeze] [-lenient] [-enc <CHARSET>] [-outenc <CHARSET>] [-buffers <N>] [-bufsize <SIZE>] [-maxmem <SIZE>] [-threads <N>] [-plan]";
     String usage = "java -jar " + module + " " + options;
+    String batchUsage = "java -jar " + module + " -batch <MANIFEST_PATH> | -batch -<MODE> -i <SRC_DIR> [-glob <PATTERN>] [-recursive] [-o <DEST_DIR>] [-jobs <N>] [OPTIONS]";
 
     StringBuilder sb = new StringBuilder();
     for (int i = 0; i < FORMATS.length; i++) {
@@ -119,9 +159,23 @@ public class Main {
 
     Log.print("Usage:");
     Log.print(usage);
+    Log.print(batchUsage);
     Log.print("");
     Log.print("MODE: " + modes);
     Log.print("");
+    Log.print("SRC: If neither SRC nor -i is given, or \"-i -\" is given, the source is read from stdin.");
+    Log.print("     The result is written to stdout if -o is omitted or \"-o -\" is given.");
+    Log.print("");
+    Log.print("-text: show the text in the charset of -enc instead of ASCII in the dump");
+    Log.print("-lenient: skip invalid characters in fromhex / frombin");
+    Log.print("N: number of read-ahead / write-behind buffers (default: 3, 0 = no background I/O)");
+    Log.print("SIZE: size of each buffer (default: 1M) / heap budget for the job (default: available heap). e.g., 64K, 4M");
+    Log.print("-threads: number of threads for base64, hex and bin (default: 1, 0 = all processors)");
+    Log.print("-plan: print the execution plan to stderr");
+    Log.print("-batch: convert the files listed in MANIFEST (\"MODE SRC DEST [OPTIONS]\" per line), or the files in SRC_DIR that match PATTERN");
+    Log.print("-recursive: include the subdirectories of SRC_DIR and mirror the tree under DEST_DIR");
+    Log.print("-jobs: number of files converted at a time in the batch (default: 1, 0 = 4 per processor)");
+    Log.print("");
     Log.print("CHARSET: utf8, sjis, euc_jp, etc");
     Log.print("See https://docs.oracle.com/javase/8/docs/technotes/guides/intl/encoding.doc.html");
   }
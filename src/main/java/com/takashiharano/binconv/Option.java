@@ -56,4 +56,41 @@ public class Option extends HashMap<String, String> {
     return v;
   }
 
+  /**
+   * Returns the size value. The suffix K, M or G is accepted. e.g., "64K"
+   *
+   * @param key
+   *          the option name
+   * @param defaultValue
+   *          the value to return if the option is not specified or invalid
+   * @return the size in bytes
+   */
+  public long getSizeValue(String key, long defaultValue) {
+    if (!containsKey(key)) {
+      return defaultValue;
+    }
+
+    String s = get(key).trim().toUpperCase();
+    long unit = 1;
+    if (s.endsWith("K")) {
+      unit = 1024L;
+    } else if (s.endsWith("M")) {
+      unit = 1024L * 1024;
+    } else if (s.endsWith("G")) {
+      unit = 1024L * 1024 * 1024;
+    }
+    if (unit > 1) {
+      s = s.substring(0, s.length() - 1);
+    }
+
+    long v;
+    try {
+      v = Long.parseLong(s) * unit;
+    } catch (Exception e) {
+      v = defaultValue;
+    }
+
+    return v;
+  }
+
 }
@@ -24,110 +24,633 @@
 package com.takashiharano.binconv.converter;
 
 import java.io.IOException;
-import java.util.Base64;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import com.takashiharano.binconv.IllegalOptionException;
 import com.takashiharano.binconv.Option;
+import com.takashiharano.binconv.util.BufferPool;
+import com.takashiharano.binconv.util.ChunkExecutor;
+import com.takashiharano.binconv.util.CodecKernel;
 import com.takashiharano.binconv.util.FileUtil;
-import com.takashiharano.binconv.util.Log;
 
-public class Base64Conv implements Converter {
+public class Base64Conv implements Converter, StreamConverter {
+
+  private static final int ENCODE_CHUNK_SIZE = 3 * 16 * 1024;
+  private static final int DECODE_CHUNK_SIZE = 64 * 1024;
+  private static final int PARALLEL_CHUNK_SIZE = 256 * 1024;
+  private static final int CHUNKS_PER_THREAD = 2;
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+  private static final byte[] CRLF = { '\r', '\n' };
+
+  private static final int WS = -2;
+  private static final int PAD = -3;
+  private static final int[] DECODE_TABLE = new int[256];
+  static {
+    Arrays.fill(DECODE_TABLE, -1);
+    String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for (int i = 0; i < chars.length(); i++) {
+      DECODE_TABLE[chars.charAt(i)] = i;
+    }
+    DECODE_TABLE[' '] = WS;
+    DECODE_TABLE['\t'] = WS;
+    DECODE_TABLE['\r'] = WS;
+    DECODE_TABLE['\n'] = WS;
+    DECODE_TABLE['\f'] = WS;
+    DECODE_TABLE['='] = PAD;
+  }
 
   public void process(Option option) throws IllegalOptionException {
-    try {
-      if (option.hasOption("frombase64")) {
-        decode(option);
-      } else if (option.hasOption("tobase64")) {
-        encode(option);
-      } else {
-        throw new IllegalOptionException();
-      }
-    } catch (Exception e) {
-      Log.print(e);
+    if (!option.hasOption("frombase64") && !option.hasOption("tobase64")) {
+      throw new IllegalOptionException();
     }
+    StreamRunner.run(this, "base64", option);
   }
 
-  private static void decode(Option option) throws IOException {
-    String b64;
+  public void decode(InputStream in, OutputStream out, ExecutionPlan plan, Option option) throws IOException {
+    int threads = plan.getThreads();
+    if (threads > 1) {
+      decodeParallel(in, out, threads);
+    } else {
+      decode(in, out);
+    }
+  }
 
-    String srcPath = option.get("i");
-    if (srcPath == null) {
-      b64 = option.get("frombase64");
+  public void encode(InputStream in, OutputStream out, ExecutionPlan plan, Option option) throws IOException {
+    int newlinePos = option.getIntValue("newline", 76);
+    int threads = plan.getThreads();
+    if (threads > 1) {
+      encodeParallel(in, out, newlinePos, threads, plan.getSourceSize(), plan.getMemoryBudget());
     } else {
-      if (!FileUtil.exists(srcPath)) {
-        Log.print("File not found: " + srcPath);
-        return;
+      encode(in, out, newlinePos);
+    }
+  }
+
+  /**
+   * Decodes the Base64 stream chunk by chunk.<br>
+   * Whitespace and line breaks are skipped wherever they appear, so the text
+   * does not need to be normalized before decoding.
+   *
+   * @param in
+   *          the Base64 text stream
+   * @param out
+   *          the destination stream
+   * @throws IOException
+   *           If an I/O error occurs
+   * @throws IllegalArgumentException
+   *           If the text is not a valid Base64 scheme
+   */
+  private static void decode(InputStream in, OutputStream out) throws IOException {
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer srcBuf = pool.get(DECODE_CHUNK_SIZE);
+    ByteBuffer dstBuf = pool.get(DECODE_CHUNK_SIZE);
+    try {
+      Decoder decoder = new Decoder();
+      decode(in, out, decoder, 0, srcBuf.array(), dstBuf.array());
+      int len = decoder.finish(dstBuf.array(), 0);
+      out.write(dstBuf.array(), 0, len);
+    } finally {
+      pool.release(srcBuf);
+      pool.release(dstBuf);
+    }
+  }
+
+  private static void decode(InputStream in, OutputStream out, Decoder decoder, long offset, byte[] src, byte[] dst) throws IOException {
+    int n;
+    while ((n = in.read(src, 0, DECODE_CHUNK_SIZE)) >= 0) {
+      int p = decoder.decode(src, 0, n, offset, dst, 0);
+      out.write(dst, 0, p);
+      offset += n;
+    }
+  }
+
+  /**
+   * The state of decoding, carried from a chunk to the next.
+   */
+  private static class Decoder {
+
+    private int bits;
+    private int count;
+    private int pad;
+
+    /**
+     * Decodes the chunk.
+     *
+     * @param src
+     *          the Base64 text
+     * @param off
+     *          the start offset of the chunk
+     * @param len
+     *          the length of the chunk
+     * @param offset
+     *          the position of src[off] in the whole text, for the error
+     *          messages
+     * @param dst
+     *          the destination
+     * @param p
+     *          the position to write in the destination
+     * @return the position next to the last byte written
+     */
+    int decode(byte[] src, int off, int len, long offset, byte[] dst, int p) {
+      int end = off + len;
+      for (int i = off; i < end; i++) {
+        int b = src[i] & 0xFF;
+        int v = DECODE_TABLE[b];
+        if (v == WS) {
+          continue;
+        }
+        if (pad > 0) {
+          if ((v == PAD) && (pad == 1)) {
+            pad = 2;
+            continue;
+          }
+          throw new IllegalArgumentException("Input byte array has incorrect ending byte at " + (offset + i - off));
+        }
+        if (v >= 0) {
+          bits = (bits << 6) | v;
+          count++;
+          if (count == 4) {
+            dst[p++] = (byte) (bits >> 16);
+            dst[p++] = (byte) (bits >> 8);
+            dst[p++] = (byte) bits;
+            bits = 0;
+            count = 0;
+          }
+        } else if ((v == PAD) && (count >= 2)) {
+          p = decodeLastUnit(bits, count, dst, p);
+          pad = (count == 2 ? 1 : 2);
+          count = 0;
+        } else {
+          throw new IllegalArgumentException("Illegal base64 character " + Integer.toString(b, 16) + " at " + (offset + i - off));
+        }
       }
-      b64 = FileUtil.readText(srcPath);
+      return p;
     }
 
-    if (b64 == null) {
-      return;
+    /**
+     * Returns whether the decoder is at the boundary of the 4-character groups
+     * and has not seen the padding, that is, in the same state as the start.
+     */
+    boolean isClean() {
+      return (count == 0) && (pad == 0);
     }
 
-    b64 = b64.replaceAll("\r\n", "").replaceAll("\r", "").replaceAll("\n", "");
-    byte[] content = Base64.getDecoder().decode(b64);
+    /**
+     * Checks the end of the text and decodes the last unit without padding.
+     *
+     * @return the position next to the last byte written
+     */
+    int finish(byte[] dst, int p) {
+      if (pad == 1) {
+        throw new IllegalArgumentException("Input byte array has wrong 4-byte ending unit");
+      }
+      if (count == 1) {
+        throw new IllegalArgumentException("Last unit does not have enough valid bits");
+      }
+      if (count > 1) {
+        p = decodeLastUnit(bits, count, dst, p);
+      }
+      return p;
+    }
+
+  }
 
-    String destPath = option.get("o");
-    if (destPath == null) {
-      String s = new String(content);
-      Log.print(s);
+  private static int decodeLastUnit(int bits, int count, byte[] dst, int p) {
+    if (count == 2) {
+      dst[p++] = (byte) (bits >> 4);
     } else {
-      FileUtil.write(destPath, content);
-      Log.print("OK");
+      dst[p++] = (byte) (bits >> 10);
+      dst[p++] = (byte) (bits >> 2);
     }
+    return p;
   }
 
-  private static void encode(Option option) throws IOException {
-    byte[] b;
+  /**
+   * Encodes the stream into Base64 chunk by chunk.<br>
+   * Only whole 3-byte groups are encoded as the data arrives, so that no padding
+   * appears except at the end.
+   *
+   * @param in
+   *          the source stream
+   * @param out
+   *          the destination stream
+   * @param newlinePos
+   *          the line length to insert CRLF. 0 = no line breaks
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  private static void encode(InputStream in, OutputStream out, int newlinePos) throws IOException {
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer srcBuf = pool.get(ENCODE_CHUNK_SIZE);
+    ByteBuffer dstBuf = pool.get(ENCODE_CHUNK_SIZE / 3 * 4);
+    try {
+      encode(in, out, newlinePos, srcBuf.array(), dstBuf.array());
+    } finally {
+      pool.release(srcBuf);
+      pool.release(dstBuf);
+    }
+  }
 
-    String srcPath = option.get("i");
-    if (srcPath == null) {
-      String text = option.get("tobase64");
-      b = text.getBytes("UTF-8");
-    } else {
-      if (!FileUtil.exists(srcPath)) {
-        Log.print("File not found: " + srcPath);
-        return;
+  private static void encode(InputStream in, OutputStream out, int newlinePos, byte[] src, byte[] dst) throws IOException {
+    int col = 0;
+    int len = 0;
+    int n;
+    while ((n = in.read(src, len, ENCODE_CHUNK_SIZE - len)) >= 0) {
+      len += n;
+      int blockLen = len - (len % 3);
+      if (blockLen > 0) {
+        int m = encodeBlock(src, blockLen, dst);
+        col = writeLines(out, dst, m, col, newlinePos);
+        System.arraycopy(src, blockLen, src, 0, len - blockLen);
+        len -= blockLen;
+      }
+    }
+    if (len > 0) {
+      int m = encodeBlock(src, len, dst);
+      col = writeLines(out, dst, m, col, newlinePos);
+    }
+    if (col > 0) {
+      out.write(CRLF);
+    }
+  }
+
+  /**
+   * Encodes the bytes into Base64 with padding.
+   *
+   * @return the number of the encoded characters
+   */
+  private static int encodeBlock(byte[] src, int len, byte[] dst) {
+    return CodecKernel.encodeBase64(src, 0, len, dst, 0);
+  }
+
+  private static int writeLines(OutputStream out, byte[] b64, int len, int col, int newlinePos) throws IOException {
+    if (newlinePos <= 0) {
+      out.write(b64, 0, len);
+      return 0;
+    }
+    int p = 0;
+    while (p < len) {
+      int n = newlinePos - col;
+      if (n > len - p) {
+        n = len - p;
+      }
+      out.write(b64, p, n);
+      p += n;
+      col += n;
+      if (col == newlinePos) {
+        out.write(CRLF);
+        col = 0;
+      }
+    }
+    return col;
+  }
+
+  /**
+   * Encodes the stream into Base64 on the worker threads.<br>
+   * The source is read segment by segment, and each segment is split into the
+   * chunks of PARALLEL_CHUNK_SIZE aligned to the lines. Since every chunk but
+   * the last one starts at the beginning of a line and has no padding, the
+   * output of each chunk is written into its own region of the output buffer
+   * at the precomputed position, and the result is the same as encode(). The
+   * next segment is read while the chunks are encoded.<br>
+   * The segments are limited by the source size and the heap budget. If there
+   * is no room for two chunks, such as for a small source or a line so long
+   * that a chunk is huge, the stream is encoded by encode() instead.
+   */
+  private static void encodeParallel(InputStream in, OutputStream out, int newlinePos, int threads, long srcSize, long memoryBudget) throws IOException {
+    long unit = getEncodeUnit(newlinePos);
+    long chunkBytes = Math.max(PARALLEL_CHUNK_SIZE / unit, 1) * unit;
+    long chunkOutBytes = getEncodedLength(chunkBytes, newlinePos);
+    // two segments each for the source and the output, which the pool may
+    // round up to twice the size. The other half of the budget is left to
+    // the read-ahead / write-behind buffers.
+    long chunksPerSegment = memoryBudget / 2 / ((chunkBytes + chunkOutBytes) * 2 * 2);
+    chunksPerSegment = Math.min(chunksPerSegment, (long) threads * CHUNKS_PER_THREAD);
+    chunksPerSegment = Math.min(chunksPerSegment, MAX_ARRAY_SIZE / chunkOutBytes);
+    if (srcSize >= 0) {
+      chunksPerSegment = Math.min(chunksPerSegment, (srcSize + chunkBytes - 1) / chunkBytes);
+    }
+    if (chunksPerSegment < 2) {
+      encode(in, out, newlinePos);
+      return;
+    }
+    int chunkSize = (int) chunkBytes;
+    int chunkOutLen = (int) chunkOutBytes;
+    int segmentSize = (int) (chunkBytes * chunksPerSegment);
+    int segmentOutLen = (int) (chunkOutBytes * chunksPerSegment);
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer[] srcBufs = { pool.get(segmentSize), pool.get(segmentSize) };
+    ByteBuffer[] dstBufs = { pool.get(segmentOutLen), pool.get(segmentOutLen) };
+    try (ChunkExecutor executor = new ChunkExecutor(threads)) {
+      int cur = 0;
+      int len = FileUtil.readFully(in, srcBufs[cur].array(), 0, segmentSize);
+      while (len > 0) {
+        byte[] src = srcBufs[cur].array();
+        byte[] dst = dstBufs[cur].array();
+        int srcLen = len;
+        int chunks = (srcLen + chunkSize - 1) / chunkSize;
+        ChunkExecutor.Job job = executor.submit(chunks, (i) -> {
+          int off = i * chunkSize;
+          encodeChunk(src, off, Math.min(chunkSize, srcLen - off), dst, i * chunkOutLen, newlinePos);
+        });
+        int next = 1 - cur;
+        len = 0;
+        if (srcLen == segmentSize) {
+          len = FileUtil.readFully(in, srcBufs[next].array(), 0, segmentSize);
+        }
+        job.join();
+        out.write(dst, 0, (int) getEncodedLength(srcLen, newlinePos));
+        cur = next;
       }
-      b = FileUtil.read(srcPath);
+    } finally {
+      for (int i = 0; i < 2; i++) {
+        pool.release(srcBufs[i]);
+        pool.release(dstBufs[i]);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of bytes to encode into whole lines without padding.
+   */
+  private static long getEncodeUnit(int newlinePos) {
+    if (newlinePos <= 0) {
+      return 3;
+    }
+    // the least common multiple of the line length and 4 characters
+    long chars = newlinePos;
+    while (chars % 4 != 0) {
+      chars += newlinePos;
     }
+    return chars / 4 * 3;
+  }
 
-    if (b == null) {
-      Log.print("Error: the source byte is null");
+  /**
+   * Returns the length of the Base64 text of len bytes with the line breaks.
+   */
+  private static long getEncodedLength(long len, int newlinePos) {
+    long chars = (len + 2) / 3 * 4;
+    if (newlinePos <= 0) {
+      return chars;
+    }
+    long lines = (chars + newlinePos - 1) / newlinePos;
+    return chars + lines * CRLF.length;
+  }
+
+  /**
+   * Encodes the chunk that starts at the beginning of a line, and ends the
+   * lines with CRLF including the last partial line.<br>
+   * The Base64 text is encoded at the tail of the region first, and then the
+   * lines are moved forward to their places, so no work buffer is needed.
+   */
+  private static void encodeChunk(byte[] src, int off, int len, byte[] dst, int pos, int newlinePos) {
+    if (newlinePos <= 0) {
+      CodecKernel.encodeBase64(src, off, len, dst, pos);
       return;
     }
+    int chars = (len + 2) / 3 * 4;
+    int lines = (chars + newlinePos - 1) / newlinePos;
+    int textPos = pos + lines * CRLF.length;
+    CodecKernel.encodeBase64(src, off, len, dst, textPos);
+    int p = pos;
+    for (int i = 0; i < lines; i++) {
+      int lineLen = Math.min(newlinePos, chars - i * newlinePos);
+      System.arraycopy(dst, textPos + i * newlinePos, dst, p, lineLen);
+      p += lineLen;
+      dst[p++] = '\r';
+      dst[p++] = '\n';
+    }
+  }
 
-    String b64 = Base64.getEncoder().encodeToString(b);
+  /**
+   * Decodes the Base64 stream on the worker threads.<br>
+   * The text is read segment by segment. The characters other than whitespace
+   * are counted in each chunk of the segment in parallel, and the boundaries
+   * of the chunks are moved to the boundaries of the 4-character groups, so
+   * that each chunk is decoded independently into the precomputed region of
+   * the output. The incomplete group at the end of the segment is carried over
+   * to the next segment, which is read while the chunks are decoded.<br>
+   * A chunk that does not end cleanly, because of the padding or an illegal
+   * character, is decoded again sequentially from its start, and the rest of
+   * the stream is decoded by decode(), so the result and the errors are the
+   * same as decode().
+   */
+  private static void decodeParallel(InputStream in, OutputStream out, int threads) throws IOException {
+    int segmentSize = PARALLEL_CHUNK_SIZE * threads * CHUNKS_PER_THREAD;
+    BufferPool pool = BufferPool.getDefault();
+    DecodeSegment[] segments = new DecodeSegment[2];
+    try (ChunkExecutor executor = new ChunkExecutor(threads)) {
+      for (int i = 0; i < 2; i++) {
+        segments[i] = new DecodeSegment(pool.get(segmentSize), pool.get(segmentSize / 4 * 3 + 4));
+      }
+      DecodeSegment cur = segments[0];
+      cur.read(in, null, segmentSize);
+      cur.split(executor);
+      ChunkExecutor.Job job = cur.submit(executor);
+      while (true) {
+        DecodeSegment next = null;
+        if (!cur.eof) {
+          next = (cur == segments[0] ? segments[1] : segments[0]);
+          next.read(in, cur, segmentSize);
+        }
+        job.join();
+        int failed = cur.getFailedChunk();
+        if (failed >= 0) {
+          // decode the rest sequentially to get the same result and errors
+          Decoder decoder = new Decoder();
+          byte[] dst = cur.dst.array();
+          out.write(dst, 0, cur.outPos[failed]);
+          int start = cur.bounds[failed];
+          int p = decoder.decode(cur.src.array(), start, cur.end - start, cur.offset + start, dst, 0);
+          out.write(dst, 0, p);
+          if (next != null) {
+            p = decoder.decode(next.src.array(), 0, next.len, next.offset, dst, 0);
+            out.write(dst, 0, p);
+            if (!next.eof) {
+              decode(in, out, decoder, next.offset + next.len, next.src.array(), dst);
+            }
+          }
+          p = decoder.finish(dst, 0);
+          out.write(dst, 0, p);
+          return;
+        }
+        if (next != null) {
+          next.split(executor);
+          job = next.submit(executor);
+        }
+        out.write(cur.dst.array(), 0, cur.getOutputLength());
+        if (next == null) {
+          int p = cur.getLastDecoder().finish(cur.dst.array(), 0);
+          out.write(cur.dst.array(), 0, p);
+          return;
+        }
+        cur = next;
+      }
+    } finally {
+      for (int i = 0; i < 2; i++) {
+        if (segments[i] != null) {
+          pool.release(segments[i].src);
+          pool.release(segments[i].dst);
+        }
+      }
+    }
+  }
 
-    int newlinePos = option.getIntValue("newline", 76);
-    if (newlinePos > 0) {
-      b64 = insertNewLine(b64, newlinePos);
+  /**
+   * A segment of the Base64 text decoded in parallel.
+   */
+  private static class DecodeSegment {
+
+    final ByteBuffer src;
+    final ByteBuffer dst;
+    // the position of src[0] in the whole text
+    long offset;
+    int len;
+    boolean eof;
+    // the end of the text decoded in this segment. The rest is carried over.
+    int end;
+    int chunks;
+    // the start of the chunks in src, and bounds[chunks] = end
+    int[] bounds;
+    // the position of the output of the chunks in dst
+    int[] outPos;
+    int[] outEnd;
+    Decoder[] decoders;
+
+    DecodeSegment(ByteBuffer src, ByteBuffer dst) {
+      this.src = src;
+      this.dst = dst;
     }
 
-    String destPath = option.get("o");
-    if (destPath == null) {
-      Log.print(b64);
-    } else {
-      FileUtil.write(destPath, b64);
-      Log.print("OK");
+    /**
+     * Reads the segment after the carried over text of the previous segment.
+     */
+    void read(InputStream in, DecodeSegment prev, int segmentSize) throws IOException {
+      byte[] b = src.array();
+      int carry = 0;
+      offset = 0;
+      if (prev != null) {
+        carry = prev.len - prev.end;
+        System.arraycopy(prev.src.array(), prev.end, b, 0, carry);
+        offset = prev.offset + prev.end;
+      }
+      int n = FileUtil.readFully(in, b, carry, segmentSize - carry);
+      len = carry + n;
+      eof = (n < segmentSize - carry);
+    }
+
+    /**
+     * Counts the characters in the chunks in parallel, and decides the
+     * boundaries of the chunks at the boundaries of the 4-character groups.
+     */
+    void split(ChunkExecutor executor) throws IOException {
+      byte[] b = src.array();
+      int n = (len + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+      long[] counts = new long[n];
+      executor.invoke(n, (i) -> {
+        int from = i * PARALLEL_CHUNK_SIZE;
+        counts[i] = countChars(b, from, Math.min(from + PARALLEL_CHUNK_SIZE, len));
+      });
+      long total = 0;
+      for (int i = 0; i < n; i++) {
+        total += counts[i];
+      }
+
+      end = len;
+      int rem = (int) (total % 4);
+      if (!eof && (rem != 0)) {
+        // carry the incomplete group over, from its first character
+        int p = len;
+        while (rem > 0) {
+          p--;
+          if (DECODE_TABLE[b[p] & 0xFF] != WS) {
+            rem--;
+          }
+        }
+        if (len - p <= PARALLEL_CHUNK_SIZE) {
+          end = p;
+        }
+        // otherwise the group is spread over too much whitespace. The last
+        // chunk does not end cleanly, and the rest is decoded sequentially.
+      }
+
+      bounds = new int[n + 1];
+      outPos = new int[n + 1];
+      chunks = 0;
+      long before = 0;
+      for (int i = 0; i < n; i++) {
+        int p = i * PARALLEL_CHUNK_SIZE;
+        long c = before;
+        while ((c % 4 != 0) && (p < end)) {
+          if (DECODE_TABLE[b[p] & 0xFF] != WS) {
+            c++;
+          }
+          p++;
+        }
+        before += counts[i];
+        if ((c % 4 != 0) || (p >= end) || ((chunks > 0) && (p <= bounds[chunks - 1]))) {
+          continue;
+        }
+        bounds[chunks] = p;
+        outPos[chunks] = (int) (c / 4 * 3);
+        chunks++;
+      }
+      bounds[chunks] = end;
+      outEnd = new int[chunks];
+      decoders = new Decoder[chunks];
     }
+
+    ChunkExecutor.Job submit(ChunkExecutor executor) {
+      byte[] b = src.array();
+      byte[] d = dst.array();
+      return executor.submit(chunks, (i) -> {
+        Decoder decoder = new Decoder();
+        try {
+          outEnd[i] = decoder.decode(b, bounds[i], bounds[i + 1] - bounds[i], offset + bounds[i], d, outPos[i]);
+          decoders[i] = decoder;
+        } catch (IllegalArgumentException e) {
+          // reported by the sequential decoding
+          decoders[i] = null;
+        }
+      });
+    }
+
+    /**
+     * Returns the first chunk that failed or did not end cleanly. The last
+     * chunk of the text may end with the padding.
+     *
+     * @return the index of the chunk, or -1 if none
+     */
+    int getFailedChunk() {
+      for (int i = 0; i < chunks; i++) {
+        Decoder decoder = decoders[i];
+        if ((decoder == null) || (!decoder.isClean() && !(eof && (i == chunks - 1)))) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    int getOutputLength() {
+      return (chunks == 0 ? 0 : outEnd[chunks - 1]);
+    }
+
+    Decoder getLastDecoder() {
+      return (chunks == 0 ? new Decoder() : decoders[chunks - 1]);
+    }
+
   }
 
-  private static String insertNewLine(String str, int pos) {
-    StringBuilder sb = new StringBuilder();
-    int p = 0;
-    while (p < str.length()) {
-      int endIndex = p + pos;
-      if (endIndex >= str.length()) {
-        endIndex = str.length();
+  private static long countChars(byte[] b, int from, int to) {
+    long count = 0;
+    for (int i = from; i < to; i++) {
+      if (DECODE_TABLE[b[i] & 0xFF] != WS) {
+        count++;
       }
-      String s = str.substring(p, endIndex);
-      sb.append(s);
-      sb.append("\r\n");
-      p += pos;
     }
-    return sb.toString();
+    return count;
   }
 
 }
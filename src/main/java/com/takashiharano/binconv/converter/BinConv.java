@@ -24,106 +24,130 @@
 package com.takashiharano.binconv.converter;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import com.takashiharano.binconv.IllegalOptionException;
 import com.takashiharano.binconv.Option;
+import com.takashiharano.binconv.util.BinTextDecoder;
 import com.takashiharano.binconv.util.BinUtil;
+import com.takashiharano.binconv.util.BufferPool;
+import com.takashiharano.binconv.util.ChunkExecutor;
+import com.takashiharano.binconv.util.DumpWriter;
 import com.takashiharano.binconv.util.FileUtil;
-import com.takashiharano.binconv.util.Log;
-import com.takashiharano.binconv.util.StrUtil;
 
-public class BinConv implements Converter {
+public class BinConv implements Converter, StreamConverter {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int CHUNKS_PER_THREAD = 2;
 
   public void process(Option option) throws IllegalOptionException {
-    try {
-      if (option.hasOption("frombin")) {
-        frombBin(option);
-      } else if (option.hasOption("tobin")) {
-        toBin(option);
-      } else {
-        throw new IllegalOptionException();
-      }
-    } catch (Exception ioe) {
-      Log.print(ioe);
+    if (!option.hasOption("frombin") && !option.hasOption("tobin")) {
+      throw new IllegalOptionException();
     }
+    StreamRunner.run(this, "bin", option);
   }
 
-  private static void frombBin(Option option) throws IOException {
-    String text;
-
-    String srcPath = option.get("i");
-    if (srcPath == null) {
-      text = option.get("frombin");
-    } else {
-      if (!FileUtil.exists(srcPath)) {
-        Log.print("File not found: " + srcPath);
-        return;
+  public void decode(InputStream in, OutputStream out, ExecutionPlan plan, Option option) throws IOException {
+    BinTextDecoder decoder = new BinTextDecoder(out, 2, 8, option.hasOption("lenient"));
+    int threads = plan.getThreads();
+    if (threads > 1) {
+      try (ChunkExecutor executor = new ChunkExecutor(threads)) {
+        decoder.decode(in, executor);
       }
-      text = FileUtil.readText(srcPath);
-    }
-
-    if (text.startsWith("Address")) {
-      try {
-        text = trimBinText(text);
-      } catch (Exception e) {
-        Log.print("ERROR: Illegal source format");
-        return;
-      }
-    }
-
-    byte[] b = BinUtil.fromBinString(text);
-
-    String destPath = option.get("o");
-    if (destPath == null) {
-      String s = new String(b);
-      Log.print(s);
     } else {
-      FileUtil.write(destPath, b);
-      Log.print("OK");
+      decoder.decode(in);
     }
   }
 
-  private static void toBin(Option option) throws IOException {
-    byte[] b;
-
-    String srcPath = option.get("i");
-    if (srcPath == null) {
-      String text = option.get("tobin");
-      b = text.getBytes("UTF-8");
+  public void encode(InputStream in, OutputStream out, ExecutionPlan plan, Option option) throws IOException {
+    int threads = plan.getThreads();
+    if (option.hasOption("addr")) {
+      boolean squeeze = option.hasOption("squeeze");
+      if (option.hasOption("text")) {
+        Charset charset = Charset.forName(option.get("enc", FileUtil.DEFAULT_CHARSET));
+        Charset outCharset = Charset.forName(option.get("outenc", charset.name()));
+        new DumpWriter(out, true, true, true, squeeze, charset, outCharset).dump(in);
+      } else {
+        boolean ascii = option.hasOption("ascii");
+        DumpWriter writer = new DumpWriter(out, true, true, true, ascii, squeeze);
+        if ((threads > 1) && !squeeze) {
+          try (ChunkExecutor executor = new ChunkExecutor(threads)) {
+            writer.dump(in, executor);
+          }
+        } else {
+          writer.dump(in);
+        }
+      }
     } else {
-      if (!FileUtil.exists(srcPath)) {
-        Log.print("File not found: " + srcPath);
-        return;
+      int newlinePos = option.getIntValue("newline", 16);
+      if (threads > 1) {
+        writeBinParallel(in, out, newlinePos, threads);
+      } else {
+        writeBin(in, out, newlinePos);
       }
-      b = FileUtil.read(srcPath);
     }
+  }
 
-    String s;
-    if (option.hasOption("addr")) {
-      boolean ascii = option.hasOption("ascii");
-      s = BinUtil.dumpBin(b, 0, 0, true, true, ascii);
-    } else {
-      int newlinePos = option.getIntValue("newline", 16);
-      s = BinUtil.toBinString(b, 0, 0, newlinePos);
+  /**
+   * Writes "00000001 00000010 00000011 ..." with the same layout as
+   * BinUtil.toBinString().
+   */
+  private static void writeBin(InputStream in, OutputStream out, int newlinePos) throws IOException {
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer srcBuf = pool.get(BUFFER_SIZE);
+    ByteBuffer dstBuf = pool.get(BUFFER_SIZE * 9);
+    try {
+      writeBin(in, out, newlinePos, srcBuf.array(), dstBuf.array());
+    } finally {
+      pool.release(srcBuf);
+      pool.release(dstBuf);
     }
+  }
 
-    String destPath = option.get("o");
-    if (destPath == null) {
-      Log.print(s);
-    } else {
-      FileUtil.write(destPath, s);
-      Log.print("OK");
+  private static void writeBin(InputStream in, OutputStream out, int newlinePos, byte[] src, byte[] dst) throws IOException {
+    long count = 0;
+    int n;
+    while ((n = in.read(src, 0, BUFFER_SIZE)) >= 0) {
+      int p = BinUtil.encodeBin(src, 0, n, count, newlinePos, dst, 0);
+      out.write(dst, 0, p);
+      count += n;
+    }
+    if (newlinePos > 0) {
+      out.write('\n');
     }
   }
 
-  private static String trimBinText(String s) {
-    String[] a = StrUtil.text2array(s);
-    StringBuilder sb = new StringBuilder();
-    for (int i = 2; i < a.length; i++) {
-      String w = a[i];
-      w = w.substring(11, 155);
-      sb.append(w);
+  /**
+   * Same as writeBin(), but encodes the source segment by segment on the
+   * worker threads. Since the layout depends only on the position of the
+   * bytes, each block of a segment is encoded at its own position in the
+   * output buffer.
+   */
+  private static void writeBinParallel(InputStream in, OutputStream out, int newlinePos, int threads) throws IOException {
+    int segmentSize = BUFFER_SIZE * threads * CHUNKS_PER_THREAD;
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer srcBuf = pool.get(segmentSize);
+    ByteBuffer dstBuf = pool.get((int) BinUtil.getBinLength(1, segmentSize));
+    try (ChunkExecutor executor = new ChunkExecutor(threads)) {
+      byte[] src = srcBuf.array();
+      byte[] dst = dstBuf.array();
+      long count = 0;
+      int n;
+      while ((n = FileUtil.readFully(in, src, 0, segmentSize)) > 0) {
+        int p = BinUtil.encodeBin(src, 0, n, count, newlinePos, dst, 0, executor);
+        out.write(dst, 0, p);
+        count += n;
+      }
+      if (newlinePos > 0) {
+        out.write('\n');
+      }
+    } finally {
+      pool.release(srcBuf);
+      pool.release(dstBuf);
     }
-    return sb.toString();
   }
+
 }
@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.converter;
+
+/**
+ * The way to run a conversion, decided by ExecutionPlanner.
+ */
+public class ExecutionPlan {
+
+  /**
+   * How the source is read.
+   */
+  public enum Strategy {
+    /**
+     * The source is held on the heap before the conversion starts: the value of
+     * the mode option, or a file that is overwritten by the result.
+     */
+    MEMORY,
+    /** The source file is read through memory-mapped windows. */
+    MAPPED,
+    /** The source is read as a stream. */
+    STREAM
+  }
+
+  /**
+   * What the source is.
+   */
+  public enum SourceType {
+    /** The value of the mode option. */
+    ARGUMENT,
+    /** The standard input. */
+    STDIN,
+    /** A regular file. */
+    FILE,
+    /** A file that is not regular, such as a named pipe or a device. */
+    SPECIAL,
+    /** A file that does not exist. */
+    MISSING
+  }
+
+  String format;
+  boolean decode;
+  String srcPath;
+  String destPath;
+  SourceType sourceType;
+  long sourceSize;
+  boolean inPlace;
+  long memoryBudget;
+  Strategy strategy;
+  int buffers;
+  int bufferSize;
+  int threads;
+
+  /**
+   * Returns the format name.
+   *
+   * @return the format name. e.g., "hex"
+   */
+  public String getFormat() {
+    return format;
+  }
+
+  /**
+   * Returns whether the conversion is from the format to binary.
+   *
+   * @return true if from&lt;FORMAT&gt;, false if to&lt;FORMAT&gt;
+   */
+  public boolean isDecode() {
+    return decode;
+  }
+
+  /**
+   * Returns the mode name.
+   *
+   * @return the mode name. e.g., "tohex"
+   */
+  public String getMode() {
+    return (decode ? "from" : "to") + format;
+  }
+
+  /**
+   * Returns the source path.
+   *
+   * @return the file path, "-" for the standard input, or null if the source is
+   *         the value of the mode option
+   */
+  public String getSourcePath() {
+    return srcPath;
+  }
+
+  /**
+   * Returns the destination path.
+   *
+   * @return the file path, or null for the standard output
+   */
+  public String getDestPath() {
+    return destPath;
+  }
+
+  /**
+   * Returns whether the result is written to the standard output.
+   *
+   * @return true if the destination is the standard output
+   */
+  public boolean isToStdout() {
+    return destPath == null;
+  }
+
+  /**
+   * Returns the source type.
+   *
+   * @return the source type
+   */
+  public SourceType getSourceType() {
+    return sourceType;
+  }
+
+  /**
+   * Returns the source size.
+   *
+   * @return the size in bytes, or -1 if unknown
+   */
+  public long getSourceSize() {
+    return sourceSize;
+  }
+
+  /**
+   * Returns whether the destination is the same file as the source.
+   *
+   * @return true if the source is overwritten
+   */
+  public boolean isInPlace() {
+    return inPlace;
+  }
+
+  /**
+   * Returns the heap budget for the job.
+   *
+   * @return the budget in bytes
+   */
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * Returns the strategy.
+   *
+   * @return the strategy
+   */
+  public Strategy getStrategy() {
+    return strategy;
+  }
+
+  /**
+   * Returns the number of the read-ahead / write-behind buffers.
+   *
+   * @return the number of buffers for each side. 0 if no background I/O.
+   */
+  public int getBuffers() {
+    return buffers;
+  }
+
+  /**
+   * Returns the size of the read-ahead / write-behind buffers.
+   *
+   * @return the size of each buffer in bytes
+   */
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Returns the number of the threads to convert.
+   *
+   * @return the number of threads. 1 if the conversion runs on the calling
+   *         thread.
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("plan: ");
+    sb.append(strategy.name().toLowerCase());
+    sb.append(" source=");
+    sb.append(sourceType.name().toLowerCase());
+    if (sourceSize >= 0) {
+      sb.append(" size=");
+      sb.append(sourceSize);
+    }
+    if (inPlace) {
+      sb.append(" inplace");
+    }
+    sb.append(" maxmem=");
+    sb.append(memoryBudget);
+    sb.append(" buffers=");
+    sb.append(buffers);
+    if (buffers > 0) {
+      sb.append(" bufsize=");
+      sb.append(bufferSize);
+    }
+    sb.append(" threads=");
+    sb.append(threads);
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.converter;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.takashiharano.binconv.Option;
+import com.takashiharano.binconv.util.FileUtil;
+
+/**
+ * Decides how to run a conversion.<br>
+ * Looks at the source type and size and the available heap, and picks the
+ * cheapest strategy:
+ * <ul>
+ * <li>MEMORY: the value of the mode option, and a file that is overwritten by
+ * the result. Such a file is read onto the heap before the destination is
+ * opened, so it must fit in the heap budget.</li>
+ * <li>MAPPED: regular files of FileUtil.MAP_THRESHOLD or larger. They are read
+ * through memory-mapped windows and do not consume the heap.</li>
+ * <li>STREAM: smaller regular files, and the standard input, pipes and devices,
+ * whose size is not known. No background I/O threads are started for the
+ * smaller regular files.</li>
+ * </ul>
+ * The heap budget is the available heap, or -maxmem if it is smaller. The
+ * read-ahead / write-behind buffers are shrunk to fit in the budget.<br>
+ * The conversion runs on -threads worker threads for the converters that
+ * support it.
+ */
+public class ExecutionPlanner {
+
+  private static final int PIPELINE_BUFFERS = 3;
+  private static final long PIPELINE_BUFFER_SIZE = 1024 * 1024;
+  private static final long MIN_PIPELINE_BUFFER_SIZE = 4 * 1024;
+  private static final long MAX_PIPELINE_BUFFER_SIZE = 1024 * 1024 * 1024;
+  private static final int MAX_THREADS = 256;
+
+  /**
+   * Makes the plan.
+   *
+   * @param format
+   *          the format name. e.g., "hex"
+   * @param option
+   *          the options
+   * @return the plan
+   */
+  public static ExecutionPlan plan(String format, Option option) {
+    ExecutionPlan plan = new ExecutionPlan();
+    plan.format = format;
+    plan.decode = option.hasOption("from" + format);
+    plan.srcPath = getSourcePath(option, plan.getMode());
+    plan.destPath = getDestPath(option);
+    plan.memoryBudget = getMemoryBudget(option);
+    plan.threads = getThreads(option);
+    plan.sourceSize = -1;
+
+    if (plan.srcPath == null) {
+      plan.sourceType = ExecutionPlan.SourceType.ARGUMENT;
+      plan.strategy = ExecutionPlan.Strategy.MEMORY;
+      return plan;
+    }
+
+    if (StreamRunner.STDIO.equals(plan.srcPath)) {
+      plan.sourceType = ExecutionPlan.SourceType.STDIN;
+      plan.strategy = ExecutionPlan.Strategy.STREAM;
+    } else {
+      File srcFile = new File(plan.srcPath);
+      if (!srcFile.exists()) {
+        plan.sourceType = ExecutionPlan.SourceType.MISSING;
+        plan.strategy = ExecutionPlan.Strategy.STREAM;
+        return plan;
+      }
+      plan.inPlace = isSameFile(srcFile, plan.destPath);
+      if (srcFile.isFile()) {
+        plan.sourceType = ExecutionPlan.SourceType.FILE;
+        plan.sourceSize = srcFile.length();
+        if (plan.inPlace) {
+          // the destination overwrites the source, so it must be read up front
+          plan.strategy = ExecutionPlan.Strategy.MEMORY;
+          return plan;
+        }
+        if (plan.sourceSize < FileUtil.MAP_THRESHOLD) {
+          // read directly: the threads would cost more than they save
+          plan.strategy = ExecutionPlan.Strategy.STREAM;
+          return plan;
+        }
+        plan.strategy = ExecutionPlan.Strategy.MAPPED;
+      } else {
+        plan.sourceType = ExecutionPlan.SourceType.SPECIAL;
+        plan.strategy = ExecutionPlan.Strategy.STREAM;
+      }
+    }
+
+    setBuffers(plan, option);
+    return plan;
+  }
+
+  /**
+   * Returns the source path.
+   *
+   * @return the file path, "-" for the standard input, or null if the source is
+   *         the value of the mode option
+   */
+  private static String getSourcePath(Option option, String mode) {
+    String srcPath = option.get("i");
+    if ((srcPath == null) && "".equals(option.get(mode))) {
+      srcPath = StreamRunner.STDIO;
+    }
+    return srcPath;
+  }
+
+  /**
+   * Returns the destination path.
+   *
+   * @return the file path, or null for the standard output
+   */
+  private static String getDestPath(Option option) {
+    String destPath = option.get("o");
+    if (StreamRunner.STDIO.equals(destPath)) {
+      destPath = null;
+    }
+    return destPath;
+  }
+
+  private static boolean isSameFile(File srcFile, String destPath) {
+    if (destPath == null) {
+      return false;
+    }
+    try {
+      return srcFile.getCanonicalFile().equals(new File(destPath).getCanonicalFile());
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the heap budget.<br>
+   * The heap that is available now, or -maxmem if it is smaller.
+   *
+   * @param option
+   *          the options
+   * @return the budget in bytes
+   */
+  public static long getMemoryBudget(Option option) {
+    Runtime rt = Runtime.getRuntime();
+    long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+    long maxmem = option.getSizeValue("maxmem", -1);
+    if ((maxmem > 0) && (maxmem < available)) {
+      return maxmem;
+    }
+    return available;
+  }
+
+  /**
+   * Returns the number of the threads to convert.<br>
+   * 1 unless -threads is given. "-threads" without a value or with 0 means the
+   * number of the available processors.
+   *
+   * @param option
+   *          the options
+   * @return the number of threads
+   */
+  public static int getThreads(Option option) {
+    if (!option.hasOption("threads")) {
+      return 1;
+    }
+    int threads = option.getIntValue("threads", 0);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    } else if (threads > MAX_THREADS) {
+      threads = MAX_THREADS;
+    }
+    return threads;
+  }
+
+  /**
+   * Sets the read-ahead / write-behind buffers.<br>
+   * Both sides hold the buffers, so they are shrunk until the total fits in
+   * the heap budget, or disabled if even the smallest ones do not fit.
+   */
+  private static void setBuffers(ExecutionPlan plan, Option option) {
+    int buffers = option.getIntValue("buffers", PIPELINE_BUFFERS);
+    if (buffers <= 0) {
+      plan.buffers = 0;
+      return;
+    }
+
+    long bufferSize = option.getSizeValue("bufsize", PIPELINE_BUFFER_SIZE);
+    if (bufferSize < MIN_PIPELINE_BUFFER_SIZE) {
+      bufferSize = MIN_PIPELINE_BUFFER_SIZE;
+    } else if (bufferSize > MAX_PIPELINE_BUFFER_SIZE) {
+      bufferSize = MAX_PIPELINE_BUFFER_SIZE;
+    }
+
+    long limit = plan.memoryBudget / 2 / buffers;
+    if (bufferSize > limit) {
+      // round down to a power of two so it fits the budget and a pool size class
+      bufferSize = Long.highestOneBit(limit);
+    }
+    if (bufferSize < MIN_PIPELINE_BUFFER_SIZE) {
+      plan.buffers = 0;
+      return;
+    }
+
+    plan.buffers = buffers;
+    plan.bufferSize = (int) bufferSize;
+  }
+
+}
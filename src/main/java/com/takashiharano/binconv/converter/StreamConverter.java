@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.takashiharano.binconv.Option;
+
+/**
+ * A converter that processes the source as a stream.<br>
+ * Implementations must not hold the whole content in memory, and must not
+ * close the given streams.
+ */
+public interface StreamConverter {
+
+  /**
+   * Converts the binary into the text format. (to&lt;FORMAT&gt;)
+   *
+   * @param in
+   *          the source stream
+   * @param out
+   *          the destination stream
+   * @param plan
+   *          the plan of the run, which gives the number of threads, the
+   *          source size and the heap budget
+   * @param option
+   *          the options
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public void encode(InputStream in, OutputStream out, ExecutionPlan plan, Option option) throws IOException;
+
+  /**
+   * Converts the text format into the binary. (from&lt;FORMAT&gt;)
+   *
+   * @param in
+   *          the source stream
+   * @param out
+   *          the destination stream
+   * @param plan
+   *          the plan of the run, which gives the number of threads, the
+   *          source size and the heap budget
+   * @param option
+   *          the options
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public void decode(InputStream in, OutputStream out, ExecutionPlan plan, Option option) throws IOException;
+
+}
@@ -0,0 +1,311 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.converter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import com.takashiharano.binconv.IllegalSourceException;
+import com.takashiharano.binconv.Option;
+import com.takashiharano.binconv.util.BufferPool;
+import com.takashiharano.binconv.util.FileUtil;
+import com.takashiharano.binconv.util.Log;
+import com.takashiharano.binconv.util.MappedInputStream;
+import com.takashiharano.binconv.util.ReadAheadInputStream;
+import com.takashiharano.binconv.util.WriteBehindOutputStream;
+
+/**
+ * The I/O layer shared by the stream converters.<br>
+ * Opens the source and the destination according to the plan made by
+ * ExecutionPlanner, and runs the conversion between them.<br>
+ * The source is the file specified with -i, the value of the mode option, or
+ * the standard input if neither is given or "-i -" is specified. The
+ * destination is the file specified with -o, or the standard output if it is
+ * omitted or "-o -" is specified.<br>
+ * The result is written to the standard output as raw bytes, except for the
+ * command line direct input, whose result is printed as a line of text.
+ */
+public class StreamRunner {
+
+  /**
+   * The path to specify the standard input / output.
+   */
+  public static final String STDIO = "-";
+
+  private static final int STDOUT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Plans and runs the conversion.
+   *
+   * @param converter
+   *          the converter
+   * @param format
+   *          the format name. e.g., "hex"
+   * @param option
+   *          the options
+   */
+  public static void run(StreamConverter converter, String format, Option option) {
+    run(converter, ExecutionPlanner.plan(format, option), option);
+  }
+
+  /**
+   * Runs the conversion according to the plan.<br>
+   * The plan, and the buffer pool statistics after the run, are printed to
+   * stderr if -plan is specified.
+   *
+   * @param converter
+   *          the converter
+   * @param plan
+   *          the plan
+   * @param option
+   *          the options
+   */
+  public static void run(StreamConverter converter, ExecutionPlan plan, Option option) {
+    String srcPath = plan.getSourcePath();
+    boolean toStdout = plan.isToStdout();
+    if (option.hasOption("plan")) {
+      Log.error(plan);
+    }
+    try {
+      InputStream in = openSource(plan, option);
+      if (in == null) {
+        return;
+      }
+      try {
+        if (toStdout) {
+          // write to the descriptor directly: System.out would swallow the
+          // error when the reader of the pipe has gone away
+          OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), STDOUT_BUFFER_SIZE);
+          if (srcPath == null) {
+            // command line direct input/output: print as a line of text in the
+            // platform charset
+            Option consoleOption = option;
+            if (!option.hasOption("outenc")) {
+              consoleOption = new Option();
+              consoleOption.putAll(option);
+              consoleOption.put("outenc", Charset.defaultCharset().name());
+            }
+            convert(converter, plan, in, out, consoleOption);
+            out.flush();
+            Log.print("");
+          } else {
+            transfer(converter, plan, in, out, option);
+          }
+        } else {
+          writeFile(converter, plan, in, option);
+          Log.print("OK");
+        }
+      } finally {
+        if (!STDIO.equals(srcPath)) {
+          in.close();
+        }
+      }
+    } catch (IllegalSourceException e) {
+      printMessage(toStdout, "ERROR: " + e.getMessage());
+    } catch (Exception e) {
+      printMessage(toStdout, e);
+    }
+    if (option.hasOption("plan")) {
+      Log.error(BufferPool.getDefault());
+    }
+  }
+
+  /**
+   * Runs the conversion from the source file to the destination file of the
+   * plan without printing anything, and throws the error instead. Used to run
+   * many conversions in a row, such as the batch mode.
+   *
+   * @param converter
+   *          the converter
+   * @param plan
+   *          the plan. The destination must be a file.
+   * @param option
+   *          the options
+   * @throws IOException
+   *           If the source file does not exist, or an I/O error occurs
+   * @throws IllegalSourceException
+   *           If the source is invalid for the format
+   */
+  public static void convertFile(StreamConverter converter, ExecutionPlan plan, Option option) throws IOException {
+    if (plan.getSourceType() == ExecutionPlan.SourceType.MISSING) {
+      throw new FileNotFoundException("File not found: " + plan.getSourcePath());
+    }
+    InputStream in = openSource(plan, option);
+    try {
+      writeFile(converter, plan, in, option);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Converts into the destination file. The file is deleted if the conversion
+   * fails.
+   */
+  private static void writeFile(StreamConverter converter, ExecutionPlan plan, InputStream in, Option option) throws IOException {
+    File destFile = new File(plan.getDestPath());
+    try (OutputStream out = FileUtil.openOutputStream(destFile)) {
+      transfer(converter, plan, in, out, option);
+    } catch (IOException | RuntimeException e) {
+      destFile.delete();
+      throw e;
+    }
+  }
+
+  /**
+   * Runs the conversion between the streams.<br>
+   * If the plan has buffers, the source is read ahead on a reader thread and
+   * the result is written behind on a writer thread, so that the reading, the
+   * conversion and the writing overlap.
+   */
+  private static void transfer(StreamConverter converter, ExecutionPlan plan, InputStream in, OutputStream out, Option option) throws IOException {
+    boolean fromStdin = STDIO.equals(plan.getSourcePath());
+    int buffers = plan.getBuffers();
+    if (buffers <= 0) {
+      if (fromStdin) {
+        in = new FlushingInputStream(in, out);
+      }
+      convert(converter, plan, in, out, option);
+      out.flush();
+      return;
+    }
+
+    int bufferSize = plan.getBufferSize();
+    try (ReadAheadInputStream rin = new ReadAheadInputStream(in, buffers, bufferSize); WriteBehindOutputStream wout = new WriteBehindOutputStream(out, buffers, bufferSize)) {
+      InputStream cin = rin;
+      if (fromStdin) {
+        cin = new FlushingInputStream(rin, wout);
+      }
+      convert(converter, plan, cin, wout, option);
+      wout.flush();
+    }
+  }
+
+  private static void convert(StreamConverter converter, ExecutionPlan plan, InputStream in, OutputStream out, Option option) throws IOException {
+    if (plan.isDecode()) {
+      converter.decode(in, out, plan, option);
+    } else {
+      converter.encode(in, out, plan, option);
+    }
+  }
+
+  /**
+   * Opens the source according to the strategy.
+   *
+   * @param plan
+   *          the plan
+   * @param option
+   *          the options
+   * @return the source stream. null if the file does not exist.
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  private static InputStream openSource(ExecutionPlan plan, Option option) throws IOException {
+    String srcPath = plan.getSourcePath();
+    switch (plan.getSourceType()) {
+      case ARGUMENT:
+        String text = option.get(plan.getMode());
+        String enc = option.get("enc", FileUtil.DEFAULT_CHARSET);
+        return new ByteArrayInputStream(text.getBytes(enc));
+      case STDIN:
+        return System.in;
+      case MISSING:
+        printMessage(plan.isToStdout(), "File not found: " + srcPath);
+        return null;
+      default:
+        break;
+    }
+
+    File srcFile = new File(srcPath);
+    switch (plan.getStrategy()) {
+      case MEMORY:
+        // the source is the destination: read it all before it is truncated
+        if (plan.getSourceSize() > plan.getMemoryBudget()) {
+          throw new IOException("Not enough memory to read: " + srcPath + " (" + plan.getSourceSize() + " bytes, maxmem=" + plan.getMemoryBudget() + ")");
+        }
+        byte[] content = FileUtil.read(srcFile);
+        if (content == null) {
+          throw new IOException("Failed to read: " + srcPath);
+        }
+        return new ByteArrayInputStream(content);
+      case MAPPED:
+        return new MappedInputStream(srcFile);
+      default:
+        return FileUtil.openInputStream(srcFile);
+    }
+  }
+
+  /**
+   * Prints the message to stderr while the standard output carries the result,
+   * so as not to mix it into the data.
+   */
+  private static void printMessage(boolean toStdout, Object message) {
+    if (toStdout) {
+      Log.error(message);
+    } else {
+      Log.print(message);
+    }
+  }
+
+  /**
+   * Flushes the output before blocking on the input, so that the result for the
+   * data received so far appears without waiting for the end of the input.
+   */
+  private static class FlushingInputStream extends FilterInputStream {
+
+    private final OutputStream out;
+
+    FlushingInputStream(InputStream in, OutputStream out) {
+      super(in);
+      this.out = out;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (in.available() == 0) {
+        out.flush();
+      }
+      return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (in.available() == 0) {
+        out.flush();
+      }
+      return in.read(b, off, len);
+    }
+
+  }
+
+}
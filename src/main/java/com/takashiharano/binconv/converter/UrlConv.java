@@ -24,91 +24,474 @@
 package com.takashiharano.binconv.converter;
 
 import java.io.IOException;
-import java.net.URLDecoder;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import com.takashiharano.binconv.IllegalOptionException;
+import com.takashiharano.binconv.IllegalSourceException;
 import com.takashiharano.binconv.Option;
-import com.takashiharano.binconv.util.FileUtil;
-import com.takashiharano.binconv.util.Log;
+import com.takashiharano.binconv.util.AsciiBuffer;
+import com.takashiharano.binconv.util.BufferPool;
 
-public class UrlConv implements Converter {
+public class UrlConv implements Converter, StreamConverter {
 
   private static final String DEFAULT_CHARSET = "UTF-8";
+  private static final int BUFFER_SIZE = 8192;
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+  private static final String ASCII_PROBE = "%+ \r\n0123456789ABCDEFabcdef-_.*";
+
+  // the byte to write as is, or 0 for the byte to be escaped
+  private static final byte[] ENCODE_TABLE = new byte[256];
+  // the value of the hex digit, or -1
+  private static final int[] HEX_TABLE = new int[256];
+  static {
+    String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_.*";
+    for (int i = 0; i < chars.length(); i++) {
+      char c = chars.charAt(i);
+      ENCODE_TABLE[c] = (byte) c;
+    }
+    ENCODE_TABLE[' '] = '+';
+
+    Arrays.fill(HEX_TABLE, -1);
+    for (int i = 0; i < 16; i++) {
+      HEX_TABLE[HEX_DIGITS[i]] = i;
+      HEX_TABLE[Character.toLowerCase(HEX_DIGITS[i])] = i;
+    }
+  }
 
   public void process(Option option) throws IllegalOptionException {
+    if (!option.hasOption("fromurl") && !option.hasOption("tourl")) {
+      throw new IllegalOptionException();
+    }
+    StreamRunner.run(this, "url", option);
+  }
+
+  public void decode(InputStream in, OutputStream out, ExecutionPlan plan, Option option) throws IOException {
+    String enc = option.get("enc", DEFAULT_CHARSET);
+    String outEnc = option.get("outenc", enc);
+    Charset charset = getCharset(enc);
+    Charset outCharset = getCharset(outEnc);
+    if (!isAsciiCompatible(charset)) {
+      decodeText(in, out, charset, outCharset);
+      return;
+    }
+    if (charset.equals(outCharset)) {
+      decode(in, out);
+    } else {
+      TranscodingOutputStream transcoder = new TranscodingOutputStream(out, charset, outCharset);
+      decode(in, transcoder);
+      transcoder.finish();
+    }
+  }
+
+  public void encode(InputStream in, OutputStream out, ExecutionPlan plan, Option option) throws IOException {
+    String enc = option.get("enc", DEFAULT_CHARSET);
+    Charset charset = getCharset(enc);
+    if (isAsciiTransparent(charset)) {
+      encode(in, out);
+    } else {
+      encodeText(in, out, enc);
+    }
+  }
+
+  /**
+   * Decodes the URL encoded bytes chunk by chunk.<br>
+   * The escape sequences are converted into bytes as they are, "+" is converted
+   * into a space and line breaks are skipped wherever they appear, even inside
+   * of an escape sequence. The other bytes are written as is, so the source
+   * must be in an ASCII compatible charset.
+   *
+   * @param in
+   *          the URL encoded text stream
+   * @param out
+   *          the destination stream
+   * @throws IOException
+   *           If an I/O error occurs
+   * @throws IllegalSourceException
+   *           If an escape sequence is invalid
+   */
+  private static void decode(InputStream in, OutputStream out) throws IOException {
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer srcBuf = pool.get(CHUNK_SIZE);
+    ByteBuffer dstBuf = pool.get(CHUNK_SIZE);
     try {
-      if (option.hasOption("fromurl")) {
-        decode(option);
-      } else if (option.hasOption("tourl")) {
-        encode(option);
-      } else {
-        throw new IllegalOptionException();
+      decode(in, out, srcBuf.array(), dstBuf.array());
+    } finally {
+      pool.release(srcBuf);
+      pool.release(dstBuf);
+    }
+  }
+
+  private static void decode(InputStream in, OutputStream out, byte[] src, byte[] dst) throws IOException {
+    long offset = 0;
+    long escapeOffset = 0;
+    // the number of hex digits expected for the current escape sequence
+    int escape = 0;
+    int value = 0;
+    int n;
+    while ((n = in.read(src, 0, CHUNK_SIZE)) >= 0) {
+      int p = 0;
+      for (int i = 0; i < n; i++) {
+        int b = src[i] & 0xFF;
+        if ((b == '\n') || (b == '\r')) {
+          continue;
+        }
+        if (escape == 0) {
+          if (b == '%') {
+            escape = 2;
+            escapeOffset = offset + i;
+          } else if (b == '+') {
+            dst[p++] = ' ';
+          } else {
+            dst[p++] = (byte) b;
+          }
+          continue;
+        }
+        int v = HEX_TABLE[b];
+        if (v < 0) {
+          throw new IllegalSourceException("Illegal hex character in escape (%) pattern at " + (offset + i));
+        }
+        value = (value << 4) | v;
+        escape--;
+        if (escape == 0) {
+          dst[p++] = (byte) value;
+          value = 0;
+        }
       }
-    } catch (Exception e) {
-      Log.print(e);
+      out.write(dst, 0, p);
+      offset += n;
+    }
+
+    if (escape > 0) {
+      throw new IllegalSourceException("Incomplete trailing escape (%) pattern at " + escapeOffset);
     }
   }
 
-  private static void decode(Option option) throws IOException {
-    String src;
+  /**
+   * Encodes the bytes chunk by chunk in the same manner as URLEncoder.<br>
+   * Alphanumerics and "-", "_", ".", "*" are written as is, a space is
+   * converted into "+", and the other bytes are converted into "%XY". The
+   * bytes of a multibyte character must not overlap with ASCII.
+   *
+   * @param in
+   *          the source stream
+   * @param out
+   *          the destination stream
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  private static void encode(InputStream in, OutputStream out) throws IOException {
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer srcBuf = pool.get(CHUNK_SIZE);
+    ByteBuffer dstBuf = pool.get(CHUNK_SIZE * 4);
+    try {
+      encode(in, out, srcBuf.array(), dstBuf.array());
+    } finally {
+      pool.release(srcBuf);
+      pool.release(dstBuf);
+    }
+  }
 
-    String srcPath = option.get("i");
-    if (srcPath == null) {
-      src = option.get("fromurl");
-    } else {
-      if (!FileUtil.exists(srcPath)) {
-        Log.print("File not found: " + srcPath);
-        return;
+  private static void encode(InputStream in, OutputStream out, byte[] src, byte[] dst) throws IOException {
+    int n;
+    while ((n = in.read(src, 0, CHUNK_SIZE)) >= 0) {
+      int p = 0;
+      for (int i = 0; i < n; i++) {
+        int b = src[i] & 0xFF;
+        byte c = ENCODE_TABLE[b];
+        if (c != 0) {
+          dst[p++] = c;
+        } else {
+          dst[p++] = '%';
+          dst[p++] = HEX_DIGITS[b >> 4];
+          dst[p++] = HEX_DIGITS[b & 0xF];
+        }
       }
-      src = FileUtil.readText(srcPath);
+      out.write(dst, 0, p);
     }
+  }
 
-    if (src == null) {
-      return;
+  private static Charset getCharset(String charsetName) throws UnsupportedEncodingException {
+    try {
+      return Charset.forName(charsetName);
+    } catch (IllegalArgumentException e) {
+      throw new UnsupportedEncodingException(charsetName);
     }
+  }
 
-    src = src.replaceAll("\r\n", "").replaceAll("\r", "").replaceAll("\n", "");
-    String enc = option.get("enc", DEFAULT_CHARSET);
-    String s = URLDecoder.decode(src, enc);
+  /**
+   * Returns whether the ASCII characters used in URL encoding are represented
+   * by the same bytes in the charset. The stateful encodings such as ISO-2022
+   * are excluded since their bytes in the escaped mode overlap with ASCII.
+   */
+  private static boolean isAsciiCompatible(Charset charset) {
+    if (charset.name().contains("2022")) {
+      return false;
+    }
+    byte[] ascii = ASCII_PROBE.getBytes(StandardCharsets.US_ASCII);
+    return Arrays.equals(ASCII_PROBE.getBytes(charset), ascii);
+  }
 
-    String destPath = option.get("o");
-    if (destPath == null) {
-      Log.print(s);
-    } else {
-      FileUtil.write(destPath, s, enc);
-      Log.print("OK");
+  /**
+   * Returns whether every byte of the charset below 0x80 represents the ASCII
+   * character by itself. In Shift_JIS, for example, the second byte of a
+   * double-byte character may be an alphabet, so the bytes cannot be encoded
+   * one by one with the same result as URLEncoder.
+   */
+  private static boolean isAsciiTransparent(Charset charset) {
+    if (!isAsciiCompatible(charset)) {
+      return false;
+    }
+    String name = charset.name().toUpperCase();
+    if (name.equals("UTF-8") || name.contains("EUC") || name.equals("GB2312")) {
+      return true;
     }
+    return (charset.newEncoder().maxBytesPerChar() == 1);
   }
 
-  private static void encode(Option option) throws IOException {
-    String src;
-    String enc = option.get("enc", DEFAULT_CHARSET);
-    String srcPath = option.get("i");
-    if (srcPath == null) {
-      src = option.get("tourl");
-    } else {
-      if (!FileUtil.exists(srcPath)) {
-        Log.print("File not found: " + srcPath);
-        return;
+  /**
+   * Decodes the escape sequences in a charset that is not ASCII compatible,
+   * such as UTF-16. The URL encoded text itself consists of ASCII characters,
+   * so it is read as UTF-8.<br>
+   * The escape sequences and the line breaks are handled in the same manner as
+   * decode(InputStream, OutputStream), and the decoded bytes are converted into
+   * the characters by EscapedTextWriter as they arrive.
+   */
+  private static void decodeText(InputStream in, OutputStream out, Charset charset, Charset outCharset) throws IOException {
+    Reader reader = new InputStreamReader(in, DEFAULT_CHARSET);
+    EscapedTextWriter writer = new EscapedTextWriter(new OutputStreamWriter(out, outCharset), charset);
+    char[] buf = new char[BUFFER_SIZE];
+    long offset = 0;
+    long escapeOffset = 0;
+    // the number of hex digits expected for the current escape sequence
+    int escape = 0;
+    int value = 0;
+    int n;
+    while ((n = reader.read(buf, 0, buf.length)) >= 0) {
+      for (int i = 0; i < n; i++) {
+        char c = buf[i];
+        if ((c == '\n') || (c == '\r')) {
+          continue;
+        }
+        if (escape == 0) {
+          if (c == '%') {
+            escape = 2;
+            escapeOffset = offset + i;
+          } else if (c == '+') {
+            writer.writeChar(' ');
+          } else {
+            writer.writeChar(c);
+          }
+          continue;
+        }
+        int v = ((c < HEX_TABLE.length) ? HEX_TABLE[c] : -1);
+        if (v < 0) {
+          throw new IllegalSourceException("Illegal hex character in escape (%) pattern at " + (offset + i));
+        }
+        value = (value << 4) | v;
+        escape--;
+        if (escape == 0) {
+          writer.writeByte(value);
+          value = 0;
+        }
       }
-      src = FileUtil.readText(srcPath, enc);
+      offset += n;
     }
 
-    if (src == null) {
-      Log.print("Error: the source text is null");
-      return;
+    if (escape > 0) {
+      throw new IllegalSourceException("Incomplete trailing escape (%) pattern at " + escapeOffset);
     }
+    writer.finish();
+  }
 
-    String s = URLEncoder.encode(src, enc);
+  /**
+   * Encodes the text in a charset whose bytes overlap with ASCII, such as
+   * Shift_JIS.
+   */
+  private static void encodeText(InputStream in, OutputStream out, String enc) throws IOException {
+    Reader reader = new InputStreamReader(in, enc);
+    char[] buf = new char[BUFFER_SIZE];
+    AsciiBuffer encoded = new AsciiBuffer(BUFFER_SIZE * 3);
+    int len = 0;
+    int n;
+    while ((n = reader.read(buf, len, buf.length - len)) >= 0) {
+      len += n;
+      int end = len;
+      if ((end > 0) && Character.isHighSurrogate(buf[end - 1])) {
+        end--;
+      }
+      encoded.setLength(0);
+      encoded.append(URLEncoder.encode(new String(buf, 0, end), enc));
+      encoded.writeTo(out);
+      System.arraycopy(buf, end, buf, 0, len - end);
+      len -= end;
+    }
+    if (len > 0) {
+      encoded.setLength(0);
+      encoded.append(URLEncoder.encode(new String(buf, 0, len), enc));
+      encoded.writeTo(out);
+    }
+  }
 
-    String destPath = option.get("o");
-    if (destPath == null) {
-      Log.print(s);
-    } else {
-      FileUtil.write(destPath, s);
-      Log.print("OK");
+  /**
+   * Writes the URL decoded text: the characters as they are, and the bytes of
+   * the escape sequences decoded in a charset.<br>
+   * The bytes of a run of escape sequences are decoded as they arrive, and a
+   * code unit cut off at the end of the buffer is carried over. Each run is
+   * decoded separately, as URLDecoder does, so the decoder is reset at the end
+   * of the run.
+   */
+  private static class EscapedTextWriter {
+
+    private final CharsetDecoder decoder;
+    private final Writer writer;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private boolean inRun;
+
+    EscapedTextWriter(Writer writer, Charset charset) {
+      this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.writer = writer;
+    }
+
+    void writeByte(int b) throws IOException {
+      if (!bytes.hasRemaining()) {
+        decode(false);
+      }
+      bytes.put((byte) b);
+      inRun = true;
+    }
+
+    void writeChar(char c) throws IOException {
+      if (inRun) {
+        endRun();
+      }
+      if (!chars.hasRemaining()) {
+        drain();
+      }
+      chars.put(c);
+    }
+
+    /**
+     * Decodes the rest of the bytes and flushes the writer. The underlying
+     * stream is not closed.
+     */
+    void finish() throws IOException {
+      if (inRun) {
+        endRun();
+      }
+      drain();
+      writer.flush();
+    }
+
+    private void endRun() throws IOException {
+      decode(true);
+      CoderResult result;
+      do {
+        result = decoder.flush(chars);
+        if (result.isOverflow()) {
+          drain();
+        }
+      } while (result.isOverflow());
+      decoder.reset();
+      inRun = false;
     }
+
+    private void decode(boolean endOfInput) throws IOException {
+      bytes.flip();
+      CoderResult result;
+      do {
+        result = decoder.decode(bytes, chars, endOfInput);
+        if (result.isOverflow()) {
+          drain();
+        }
+      } while (result.isOverflow());
+      bytes.compact();
+    }
+
+    private void drain() throws IOException {
+      chars.flip();
+      writer.write(chars.array(), 0, chars.limit());
+      chars.clear();
+    }
+
+  }
+
+  /**
+   * Converts the bytes written in a charset into another charset. A multibyte
+   * character split across writes is carried over to the next write.
+   */
+  private static class TranscodingOutputStream extends OutputStream {
+
+    private final CharsetDecoder decoder;
+    private final Writer writer;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+    TranscodingOutputStream(OutputStream out, Charset charset, Charset outCharset) {
+      this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.writer = new OutputStreamWriter(out, outCharset);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int n = Math.min(len, bytes.remaining());
+        bytes.put(b, off, n);
+        off += n;
+        len -= n;
+        bytes.flip();
+        decoder.decode(bytes, chars, false);
+        bytes.compact();
+        drain();
+      }
+    }
+
+    /**
+     * Decodes the rest of the bytes and flushes the writer. The underlying
+     * stream is not closed.
+     */
+    void finish() throws IOException {
+      bytes.flip();
+      CoderResult result;
+      do {
+        result = decoder.decode(bytes, chars, true);
+        drain();
+      } while (result.isOverflow());
+      do {
+        result = decoder.flush(chars);
+        drain();
+      } while (result.isOverflow());
+      writer.flush();
+    }
+
+    private void drain() throws IOException {
+      chars.flip();
+      writer.write(chars.array(), 0, chars.limit());
+      chars.clear();
+    }
+
   }
 
 }
@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable buffer of ASCII text backed by a byte array.<br>
+ * Holds 1 byte per character and can be written to an output stream without
+ * charset encoding. Characters beyond 0xFF are not supported.
+ */
+public class AsciiBuffer implements Appendable, CharSequence {
+
+  private byte[] buf;
+  private int count;
+
+  public AsciiBuffer() {
+    this(256);
+  }
+
+  /**
+   * Creates a buffer.
+   *
+   * @param capacity
+   *          the initial capacity
+   */
+  public AsciiBuffer(int capacity) {
+    buf = new byte[capacity];
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > buf.length) {
+      int newCapacity = buf.length * 2;
+      if (newCapacity < capacity) {
+        newCapacity = capacity;
+      }
+      buf = Arrays.copyOf(buf, newCapacity);
+    }
+  }
+
+  @Override
+  public AsciiBuffer append(CharSequence s) {
+    if (s == null) {
+      s = "null";
+    }
+    return append(s, 0, s.length());
+  }
+
+  @Override
+  public AsciiBuffer append(CharSequence s, int start, int end) {
+    if (s == null) {
+      s = "null";
+    }
+    ensureCapacity(count + (end - start));
+    for (int i = start; i < end; i++) {
+      buf[count++] = (byte) s.charAt(i);
+    }
+    return this;
+  }
+
+  @Override
+  public AsciiBuffer append(char c) {
+    ensureCapacity(count + 1);
+    buf[count++] = (byte) c;
+    return this;
+  }
+
+  /**
+   * Appends the ASCII bytes.
+   *
+   * @param b
+   *          the bytes
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @return this buffer
+   */
+  public AsciiBuffer append(byte[] b, int off, int len) {
+    ensureCapacity(count + len);
+    System.arraycopy(b, off, buf, count, len);
+    count += len;
+    return this;
+  }
+
+  /**
+   * Extends the content by the length, so that the caller can fill the
+   * extended region directly in array().
+   *
+   * @param len
+   *          the number of bytes to extend
+   * @return the offset of the extended region in array()
+   */
+  public int extend(int len) {
+    ensureCapacity(count + len);
+    int p = count;
+    count += len;
+    return p;
+  }
+
+  @Override
+  public int length() {
+    return count;
+  }
+
+  /**
+   * Sets the length of the content.
+   *
+   * @param len
+   *          the new length. Must be less than or equal to the current length.
+   */
+  public void setLength(int len) {
+    count = len;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if ((index < 0) || (index >= count)) {
+      throw new IndexOutOfBoundsException("index: " + index);
+    }
+    return (char) (buf[index] & 0xFF);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return new String(buf, start, end - start, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Returns the internal array. The content is stored in [0, length()).
+   *
+   * @return the internal array
+   */
+  public byte[] array() {
+    return buf;
+  }
+
+  /**
+   * Writes the content to the output stream.
+   *
+   * @param out
+   *          the output stream
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buf, 0, count);
+  }
+
+  @Override
+  public String toString() {
+    return new String(buf, 0, count, StandardCharsets.ISO_8859_1);
+  }
+
+}
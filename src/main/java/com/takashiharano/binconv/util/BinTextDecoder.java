@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.takashiharano.binconv.IllegalSourceException;
+
+/**
+ * Decodes the hex or binary text such as "01 02 03 ..." into bytes as a
+ * stream.<br>
+ * Whitespace and line breaks are skipped. The trailing digits that do not
+ * fill a unit are discarded, as well as BinUtil.toBytes().<br>
+ * The characters are classified by the table shared with BinUtil.toBytes(), and
+ * the digits are accumulated straight into the output buffer. An invalid
+ * character is reported with its offset in the stream, or skipped in the
+ * lenient mode.<br>
+ * The address dump generated by DumpWriter is also accepted, and parsed by
+ * DumpParser.<br>
+ * With an executor, the plain text is read segment by segment, and each
+ * segment is decoded in chunks on the worker threads by ParallelDigitDecoder.
+ */
+public class BinTextDecoder {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final int PARALLEL_SEGMENT_SIZE_PER_THREAD = 512 * 1024;
+  private static final int FAST_PATH_MIN_LENGTH = 48;
+  private static final byte[] DUMP_SIGNATURE = { 'A', 'd', 'd', 'r', 'e', 's', 's' };
+
+  private final OutputStream out;
+  private final int radix;
+  private final int unitSize;
+  private final boolean lenient;
+  private int value;
+  private int digits;
+  private long badOffset = -1;
+  private int badChar;
+  private long offset;
+  private final byte[] buf = new byte[BUFFER_SIZE];
+  private int pos;
+
+  /**
+   * Creates a decoder.
+   *
+   * @param out
+   *          the output stream to write the decoded bytes
+   * @param radix
+   *          the radix of values. 16 or 2
+   * @param unitSize
+   *          the number of digits per byte. 2 or 8
+   */
+  public BinTextDecoder(OutputStream out, int radix, int unitSize) {
+    this(out, radix, unitSize, false);
+  }
+
+  /**
+   * Creates a decoder.
+   *
+   * @param out
+   *          the output stream to write the decoded bytes
+   * @param radix
+   *          the radix of values. 16 or 2
+   * @param unitSize
+   *          the number of digits per byte. 2 or 8
+   * @param lenient
+   *          true to skip the characters other than the digits and whitespace
+   */
+  public BinTextDecoder(OutputStream out, int radix, int unitSize, boolean lenient) {
+    BinUtil.checkRadix(radix);
+    this.out = out;
+    this.radix = radix;
+    this.unitSize = unitSize;
+    this.lenient = lenient;
+  }
+
+  /**
+   * Decodes the whole stream and writes out the decoded bytes.<br>
+   * If the text starts with "Address", it is treated as the address dump and
+   * passed to DumpParser.
+   *
+   * @param in
+   *          the source stream
+   * @throws IOException
+   *           If an I/O error occurs
+   * @throws IllegalSourceException
+   *           If the text contains an invalid character, or the address dump
+   *           is broken
+   */
+  public void decode(InputStream in) throws IOException {
+    decode(in, null);
+  }
+
+  /**
+   * Decodes the whole stream on the worker threads and writes out the decoded
+   * bytes. The result and the errors are the same as decode(InputStream). The
+   * address dump is parsed on the current thread, since each row is checked
+   * against the address of the row above.
+   *
+   * @param in
+   *          the source stream
+   * @param executor
+   *          the executor to decode the chunks, or null to decode them on the
+   *          current thread
+   * @throws IOException
+   *           If an I/O error occurs
+   * @throws IllegalSourceException
+   *           If the text contains an invalid character, or the address dump
+   *           is broken
+   */
+  public void decode(InputStream in, ChunkExecutor executor) throws IOException {
+    PushbackInputStream pin = new PushbackInputStream(in, DUMP_SIGNATURE.length);
+    byte[] head = new byte[DUMP_SIGNATURE.length];
+    int n = FileUtil.readFully(pin, head, 0, head.length);
+    pin.unread(head, 0, n);
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer bb = pool.get(READ_BUFFER_SIZE);
+    try {
+      byte[] b = bb.array();
+      if ((n == head.length) && Arrays.equals(head, DUMP_SIGNATURE)) {
+        new DumpParser(out, radix, unitSize, lenient).parse(pin);
+      } else if (executor != null) {
+        decodeParallel(pin, executor);
+      } else {
+        while ((n = pin.read(b, 0, READ_BUFFER_SIZE)) >= 0) {
+          write(b, 0, n);
+        }
+      }
+    } finally {
+      pool.release(bb);
+    }
+    finish();
+  }
+
+  private void decodeParallel(InputStream in, ChunkExecutor executor) throws IOException {
+    int segmentSize = PARALLEL_SEGMENT_SIZE_PER_THREAD * executor.getThreads();
+    ParallelDigitDecoder decoder = new ParallelDigitDecoder(radix, unitSize, lenient, executor);
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer srcBuf = pool.get(segmentSize);
+    ByteBuffer dstBuf = pool.get(segmentSize / unitSize + 1);
+    try {
+      byte[] b = srcBuf.array();
+      int n;
+      while ((n = FileUtil.readFully(in, b, 0, segmentSize)) > 0) {
+        write(decoder, b, 0, n, dstBuf.array());
+      }
+    } finally {
+      pool.release(srcBuf);
+      pool.release(dstBuf);
+    }
+  }
+
+  /**
+   * Decodes a segment of the text. The unit continued from the previous
+   * segment and the trailing digits that do not fill a unit are decoded by
+   * write(), so that they are carried over as in the sequential run.
+   */
+  private void write(ParallelDigitDecoder decoder, byte[] b, int off, int len, byte[] dst) throws IOException {
+    int end = off + len;
+    int i = off;
+    while ((digits > 0) && (i < end)) {
+      write(b, i++, 1);
+    }
+    if (i == end) {
+      return;
+    }
+    decoder.count(b, i, end);
+    int n = decoder.decode(dst, 0);
+    int bad = decoder.getBadIndex();
+    if (bad >= 0) {
+      throw new IllegalSourceException(BinUtil.getIllegalCharacterMessage(radix, b[bad] & 0xFF, offset + (bad - i)));
+    }
+    out.write(buf, 0, pos);
+    pos = 0;
+    out.write(dst, 0, n);
+    int tail = decoder.getTailStart();
+    offset += tail - i;
+    write(b, tail, end - tail);
+  }
+
+  /**
+   * Decodes the text bytes.<br>
+   * The bytes are regarded as the continuation of the previous call, and the
+   * offsets in the error messages are counted from the first call.
+   *
+   * @param b
+   *          the text in ASCII
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @throws IOException
+   *           If an I/O error occurs
+   * @throws IllegalSourceException
+   *           If a unit contains a character other than the digits, unless
+   *           lenient
+   */
+  public void write(byte[] b, int off, int len) throws IOException {
+    byte[] table = BinUtil.DIGIT_TABLE;
+    boolean hexCells = (radix == 16) && (unitSize == 2);
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      if (hexCells && (digits == 0) && (end - i >= FAST_PATH_MIN_LENGTH)) {
+        // the regular run of "01 02 03 ..." goes through the kernel
+        if (pos == buf.length) {
+          out.write(buf, 0, pos);
+          pos = 0;
+        }
+        int count = Math.min((end - i) / 3, buf.length - pos);
+        int n = CodecKernel.decodeHexCells(b, i, count, buf, pos);
+        pos += n;
+        i += n * 3;
+        if (i == end) {
+          break;
+        }
+      }
+      int d = table[b[i] & 0xFF];
+      if (d == BinUtil.DIGIT_WS) {
+        continue;
+      }
+      if ((d < 0) || (d >= radix)) {
+        if (lenient) {
+          continue;
+        }
+        if (badOffset < 0) {
+          badOffset = offset + (i - off);
+          badChar = b[i] & 0xFF;
+        }
+        d = 0;
+      }
+      value = value * radix + d;
+      if (++digits == unitSize) {
+        if (badOffset >= 0) {
+          throw new IllegalSourceException(BinUtil.getIllegalCharacterMessage(radix, badChar, badOffset));
+        }
+        if (pos == buf.length) {
+          out.write(buf, 0, pos);
+          pos = 0;
+        }
+        buf[pos++] = (byte) value;
+        value = 0;
+        digits = 0;
+      }
+    }
+    offset += len;
+  }
+
+  /**
+   * Writes out the decoded bytes.
+   *
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public void finish() throws IOException {
+    out.write(buf, 0, pos);
+    pos = 0;
+    value = 0;
+    digits = 0;
+    badOffset = -1;
+  }
+
+}
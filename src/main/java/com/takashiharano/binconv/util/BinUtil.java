@@ -25,11 +25,69 @@
  */
 package com.takashiharano.binconv.util;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * This class implements the binary related processing.
  */
 public class BinUtil {
 
+  /**
+   * The hex digits of the byte values. The 2 digits of b are at [b * 2] and
+   * [b * 2 + 1].
+   */
+  static final byte[] HEX_BYTES = new byte[256 * 2];
+  private static final String[] HEX_STRINGS = new String[256];
+
+  /**
+   * The 8 binary digits of the byte values. The digits of b are at [b * 8] to
+   * [b * 8 + 7].
+   */
+  static final byte[] BIN_BYTES = new byte[256 * 8];
+  static {
+    String digits = "0123456789ABCDEF";
+    for (int i = 0; i < 256; i++) {
+      HEX_BYTES[i * 2] = (byte) digits.charAt(i >>> 4);
+      HEX_BYTES[i * 2 + 1] = (byte) digits.charAt(i & 0xF);
+      HEX_STRINGS[i] = new String(HEX_BYTES, i * 2, 2, StandardCharsets.ISO_8859_1);
+      for (int j = 0; j < 8; j++) {
+        BIN_BYTES[i * 8 + j] = (byte) ('0' + ((i >>> (7 - j)) & 1));
+      }
+    }
+  }
+
+  /** The line in place of the repeated rows of the dump */
+  static final String SQUEEZE_MARK = "*\n";
+
+  /** The number of bytes encoded by a task of the parallel encoding */
+  private static final int PARALLEL_BLOCK_SIZE = 64 * 1024;
+
+  /**
+   * The character classes for parsing: the digit value (0-35) of '0'-'9',
+   * 'A'-'Z' and 'a'-'z', DIGIT_WS for whitespace, or DIGIT_INVALID.
+   */
+  static final byte[] DIGIT_TABLE = new byte[256];
+  static final int DIGIT_WS = -2;
+  static final int DIGIT_INVALID = -1;
+  static {
+    Arrays.fill(DIGIT_TABLE, (byte) DIGIT_INVALID);
+    for (int i = 0; i < 10; i++) {
+      DIGIT_TABLE['0' + i] = (byte) i;
+    }
+    for (int i = 0; i < 26; i++) {
+      DIGIT_TABLE['A' + i] = (byte) (10 + i);
+      DIGIT_TABLE['a' + i] = (byte) (10 + i);
+    }
+    DIGIT_TABLE[' '] = DIGIT_WS;
+    DIGIT_TABLE['\t'] = DIGIT_WS;
+    DIGIT_TABLE['\n'] = DIGIT_WS;
+    DIGIT_TABLE[0x0B] = DIGIT_WS;
+    DIGIT_TABLE['\f'] = DIGIT_WS;
+    DIGIT_TABLE['\r'] = DIGIT_WS;
+  }
+
   /**
    * Copy byte array.
    *
@@ -80,28 +138,109 @@ public class BinUtil {
    * @param unitSize
    *          the unit size of the value
    * @return the byte array
+   * @throws NumberFormatException
+   *           If a unit contains a character other than the digits
    */
   public static byte[] toBytes(String src, int radix, int unitSize) {
-    src = src.trim().replaceAll("\\r\\n|\\r|\\n|\\s", "");
-    int len = src.length();
-    int size = len / unitSize;
+    return toBytes(src, radix, unitSize, false);
+  }
 
-    if ((len % unitSize) != 0) {
-      len = unitSize * size;
-      src = src.substring(0, len);
+  /**
+   * String to Bytes<br>
+   * Whitespace and line breaks are skipped. The trailing digits that do not
+   * fill a unit are discarded.
+   *
+   * @param src
+   *          the values to convert
+   * @param radix
+   *          the radix of values. 2 to 36
+   * @param unitSize
+   *          the unit size of the value
+   * @param lenient
+   *          true to skip the characters other than the digits
+   * @return the byte array
+   * @throws NumberFormatException
+   *           If a unit contains a character other than the digits and
+   *           lenient is false. The message shows the index of the character.
+   */
+  public static byte[] toBytes(String src, int radix, int unitSize, boolean lenient) {
+    checkRadix(radix);
+    int start = 0;
+    int end = src.length();
+    while ((start < end) && (src.charAt(start) <= ' ')) {
+      start++;
+    }
+    while ((end > start) && (src.charAt(end - 1) <= ' ')) {
+      end--;
     }
 
-    byte[] bytes = new byte[size];
+    // sized for the case without whitespace; trimmed at the end if needed
+    byte[] bytes = new byte[(end - start) / unitSize];
     int p = 0;
-    for (int i = 0; i < len; i += unitSize) {
-      String v = src.substring(i, i + unitSize);
-      int b = Integer.parseInt(v, radix);
-      bytes[p] = (byte) b;
-      p++;
+    int v = 0;
+    int digits = 0;
+    int badPos = -1;
+    for (int i = start; i < end; i++) {
+      char c = src.charAt(i);
+      int d = ((c < 256) ? DIGIT_TABLE[c] : DIGIT_INVALID);
+      if (d == DIGIT_WS) {
+        continue;
+      }
+      if ((d < 0) || (d >= radix)) {
+        if (lenient) {
+          continue;
+        }
+        if (badPos < 0) {
+          badPos = i;
+        }
+        d = 0;
+      }
+      v = v * radix + d;
+      if (++digits == unitSize) {
+        if (badPos >= 0) {
+          throw new NumberFormatException(getIllegalCharacterMessage(radix, src.charAt(badPos), badPos));
+        }
+        bytes[p++] = (byte) v;
+        v = 0;
+        digits = 0;
+      }
+    }
+    if (p < bytes.length) {
+      bytes = Arrays.copyOf(bytes, p);
     }
     return bytes;
   }
 
+  static void checkRadix(int radix) {
+    if ((radix < Character.MIN_RADIX) || (radix > Character.MAX_RADIX)) {
+      throw new NumberFormatException("radix " + radix + " out of range");
+    }
+  }
+
+  /**
+   * Returns the error message for an invalid character.<br>
+   * e.g., "Illegal hex character 47 at 5" for 'G' at the index 5
+   */
+  static String getIllegalCharacterMessage(int radix, int ch, long pos) {
+    return getIllegalCharacterMessage(radix, ch, Long.toString(pos));
+  }
+
+  /**
+   * Returns the error message for an invalid character.<br>
+   * e.g., "Illegal hex character 47 at line 3, column 14"
+   */
+  static String getIllegalCharacterMessage(int radix, int ch, String location) {
+    String name;
+    if (radix == 16) {
+      name = "hex";
+    } else if (radix == 2) {
+      name = "bin";
+    } else {
+      name = "radix-" + radix;
+    }
+    return "Illegal " + name + " character " + Integer.toHexString(ch) + " at " + location;
+  }
+
   /**
    * 1234567890123...
    *
@@ -210,78 +349,176 @@ public class BinUtil {
   }
 
   public static String dumpHex(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii) {
-    int byteLength = src.length;
-    if (limit == 0) {
-      limit = byteLength;
-    }
-    int dumpLen = ((byteLength > limit) ? limit : byteLength);
-    if (dumpLen % 0x10 != 0) {
-      dumpLen = (((dumpLen / 0x10) + 1) | 0) * 0x10;
-    }
-    int lastPartLen = 0x10 * lastRows;
+    return dumpHexToBuffer(src, limit, lastRows, header, address, ascii, false).toString();
+  }
 
-    StringBuilder sb = new StringBuilder();
-    if (header) {
-      if (address) {
-        sb.append("Address    ");
-      }
-      sb.append("+0 +1 +2 +3 +4 +5 +6 +7  +8 +9 +A +B +C +D +E +F");
-      if (ascii) {
-        sb.append("  ASCII");
-      }
-      sb.append('\n');
-      sb.append("-----------------------------------------------------------");
-      if (ascii) {
-        sb.append("------------------");
-      }
-      sb.append('\n');
+  private static AsciiBuffer dumpHexToBuffer(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii, boolean squeeze) {
+    AsciiBuffer buf = new AsciiBuffer();
+    try {
+      dumpHex(src, limit, lastRows, header, address, ascii, squeeze, buf);
+    } catch (IOException e) {
+      // never happens with AsciiBuffer
+      throw new RuntimeException(e);
     }
+    return buf;
+  }
 
-    int addr = 0;
-    for (; addr < dumpLen; addr += 16) {
-      if (address) {
-        sb.append(dumpAddr(addr));
-      }
-      sb.append(dump16BytesHex(src, addr));
-      if (ascii) {
-        sb.append("  ");
-        sb.append(dumpAscii(src, addr));
-      }
-      sb.append('\n');
+  /**
+   * Dump the given bytes array into the sink row by row.
+   *
+   * @param src
+   *          the byte array
+   * @param limit
+   *          the number of bytes to dump from the head. 0 = all
+   * @param lastRows
+   *          the number of rows to dump from the tail when the limit is exceeded
+   * @param header
+   *          true to output the header
+   * @param address
+   *          true to output the address column
+   * @param ascii
+   *          true to output the ASCII column
+   * @param out
+   *          the sink to append the rows
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public static void dumpHex(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii, Appendable out) throws IOException {
+    dump(src, limit, lastRows, header, address, ascii, false, false, out);
+  }
+
+  public static String dumpHex(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii, boolean squeeze) {
+    return dumpHexToBuffer(src, limit, lastRows, header, address, ascii, squeeze).toString();
+  }
+
+  /**
+   * Dump the given bytes array into the sink row by row.<br>
+   * If squeeze is true, a run of the rows that are the same as the row above is
+   * replaced with a line of "*", like hexdump / xxd. The last row of the run is
+   * output when the run continues to the end of the dump. The omitted rows are
+   * restored from the address of the next row, so squeeze takes effect only
+   * with the address column.
+   *
+   * @param src
+   *          the byte array
+   * @param limit
+   *          the number of bytes to dump from the head. 0 = all
+   * @param lastRows
+   *          the number of rows to dump from the tail when the limit is exceeded
+   * @param header
+   *          true to output the header
+   * @param address
+   *          true to output the address column
+   * @param ascii
+   *          true to output the ASCII column
+   * @param squeeze
+   *          true to collapse the repeated rows into "*"
+   * @param out
+   *          the sink to append the rows
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public static void dumpHex(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii, boolean squeeze, Appendable out) throws IOException {
+    dump(src, limit, lastRows, header, address, ascii, squeeze, false, out);
+  }
+
+  public static String dumpBin(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii) {
+    return dumpBinToBuffer(src, limit, lastRows, header, address, ascii, false).toString();
+  }
+
+  private static AsciiBuffer dumpBinToBuffer(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii, boolean squeeze) {
+    AsciiBuffer buf = new AsciiBuffer();
+    try {
+      dumpBin(src, limit, lastRows, header, address, ascii, squeeze, buf);
+    } catch (IOException e) {
+      // never happens with AsciiBuffer
+      throw new RuntimeException(e);
     }
+    return buf;
+  }
 
-    if (byteLength > limit) {
-      if (byteLength - limit > (0x10 * lastRows)) {
-        sb.append("...\n");
-      }
-      if (lastRows > 0) {
-        int rem = (byteLength % 0x10);
-        int startAddr = (rem == 0 ? (byteLength - lastPartLen) : ((byteLength - rem) - (0x10 * (lastRows - 1))));
-        if (startAddr < dumpLen) {
-          rem = ((dumpLen - startAddr) % 0x10);
-          startAddr = dumpLen + rem;
-        }
-        int endAddr = byteLength + (rem == 0 ? 0 : (0x10 - rem));
-
-        for (addr = startAddr; addr < endAddr; addr += 16) {
-          if (address) {
-            sb.append(dumpAddr(addr));
-          }
-          sb.append(dump16BytesHex(src, addr));
-          if (ascii) {
-            sb.append("  ");
-            sb.append(dumpAscii(src, addr));
-          }
-          sb.append('\n');
-        }
-      }
+  /**
+   * Dump the given bytes array in binary into the sink row by row.
+   *
+   * @param src
+   *          the byte array
+   * @param limit
+   *          the number of bytes to dump from the head. 0 = all
+   * @param lastRows
+   *          the number of rows to dump from the tail when the limit is exceeded
+   * @param header
+   *          true to output the header
+   * @param address
+   *          true to output the address column
+   * @param ascii
+   *          true to output the ASCII column
+   * @param out
+   *          the sink to append the rows
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public static void dumpBin(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii, Appendable out) throws IOException {
+    dump(src, limit, lastRows, header, address, ascii, false, true, out);
+  }
+
+  public static String dumpBin(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii, boolean squeeze) {
+    return dumpBinToBuffer(src, limit, lastRows, header, address, ascii, squeeze).toString();
+  }
+
+  /**
+   * Dump the given bytes array in binary into the sink row by row.<br>
+   * If squeeze is true, a run of the rows that are the same as the row above is
+   * replaced with a line of "*", like hexdump / xxd. The last row of the run is
+   * output when the run continues to the end of the dump. The omitted rows are
+   * restored from the address of the next row, so squeeze takes effect only
+   * with the address column.
+   *
+   * @param src
+   *          the byte array
+   * @param limit
+   *          the number of bytes to dump from the head. 0 = all
+   * @param lastRows
+   *          the number of rows to dump from the tail when the limit is exceeded
+   * @param header
+   *          true to output the header
+   * @param address
+   *          true to output the address column
+   * @param ascii
+   *          true to output the ASCII column
+   * @param squeeze
+   *          true to collapse the repeated rows into "*"
+   * @param out
+   *          the sink to append the rows
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public static void dumpBin(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii, boolean squeeze, Appendable out) throws IOException {
+    dump(src, limit, lastRows, header, address, ascii, squeeze, true, out);
+  }
+
+  private static void dump(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii, boolean squeeze, boolean bin, Appendable out) throws IOException {
+    int[] range = getDumpRows(src.length, limit, lastRows);
+
+    if (header) {
+      dumpHeader(out, bin, address, ascii);
     }
 
-    return sb.toString();
+    DumpRowRenderer renderer = new DumpRowRenderer(bin, address, ascii);
+    squeeze = squeeze && address;
+    dumpRows(renderer, src, 0, range[0], squeeze, out);
+    if (range[1] != 0) {
+      out.append("...\n");
+    }
+    dumpRows(renderer, src, range[2], range[3], squeeze, out);
   }
 
-  public static String dumpBin(byte[] src, int limit, int lastRows, boolean header, boolean address, boolean ascii) {
-    int byteLength = src.length;
+  /**
+   * Returns the rows to dump for dumpHex() / dumpBin().
+   *
+   * @return {the end address of the head part, 1 if the rows are omitted after
+   *         the head part, the start and the end address of the tail part}
+   */
+  private static int[] getDumpRows(int byteLength, int limit, int lastRows) {
     if (limit == 0) {
       limit = byteLength;
     }
@@ -291,157 +528,112 @@ public class BinUtil {
     }
     int lastPartLen = 0x10 * lastRows;
 
-    StringBuilder sb = new StringBuilder();
-    if (header) {
-      if (address) {
-        sb.append("Address    ");
-      }
-      sb.append("+0       +1       +2       +3       +4       +5       +6       +7        +8       +9       +A       +B       +C       +D       +E       +F      ");
-      if (ascii) {
-        sb.append("  ASCII");
-      }
-      sb.append('\n');
-      sb.append("-----------------------------------------------------------------------------------------------------------------------------------------------------------");
-      if (ascii) {
-        sb.append("------------------");
-      }
-      sb.append('\n');
-    }
-
-    int addr = 0;
-    for (; addr < dumpLen; addr += 16) {
-      if (address) {
-        sb.append(dumpAddr(addr));
-      }
-      sb.append(dump16BytesBin(src, addr));
-      if (ascii) {
-        sb.append("  ");
-        sb.append(dumpAscii(src, addr));
-      }
-      sb.append('\n');
-    }
-
+    int omission = 0;
+    int startAddr = 0;
+    int endAddr = 0;
     if (byteLength > limit) {
       if (byteLength - limit > (0x10 * lastRows)) {
-        sb.append("...\n");
+        omission = 1;
       }
       if (lastRows > 0) {
         int rem = (byteLength % 0x10);
-        int startAddr = (rem == 0 ? (byteLength - lastPartLen) : ((byteLength - rem) - (0x10 * (lastRows - 1))));
+        startAddr = (rem == 0 ? (byteLength - lastPartLen) : ((byteLength - rem) - (0x10 * (lastRows - 1))));
         if (startAddr < dumpLen) {
           rem = ((dumpLen - startAddr) % 0x10);
           startAddr = dumpLen + rem;
         }
-        int endAddr = byteLength + (rem == 0 ? 0 : (0x10 - rem));
-
-        for (addr = startAddr; addr < endAddr; addr += 16) {
-          if (address) {
-            sb.append(dumpAddr(addr));
-          }
-          sb.append(dump16BytesBin(src, addr));
-          if (ascii) {
-            sb.append("  ");
-            sb.append(dumpAscii(src, addr));
-          }
-          sb.append('\n');
-        }
+        endAddr = byteLength + (rem == 0 ? 0 : (0x10 - rem));
       }
     }
-
-    return sb.toString();
-  }
-
-  private static String dumpAddr(int addr) {
-    String hexAddr = Integer.toHexString(addr).toUpperCase();
-    String adr = ("0000000" + hexAddr);
-    String baseAdddr = adr.substring((adr.length() - 8), adr.length());
-    return baseAdddr + " : ";
+    return new int[] { dumpLen, omission, startAddr, endAddr };
   }
 
-  private static String dump16BytesHex(byte[] buf, int startAddr) {
-    int addr = startAddr;
-    StringBuilder sb = new StringBuilder();
-
-    for (int i = 0; i < 16; i++) {
-      if (i == 8) {
-        sb.append("  ");
-      } else if (i > 0) {
-        sb.append(" ");
+  /**
+   * Dump the rows in [start, end). The last row of the range is always output,
+   * so that the rows squeezed before it can be restored.
+   */
+  private static void dumpRows(DumpRowRenderer renderer, byte[] src, int start, int end, boolean squeeze, Appendable out) throws IOException {
+    int byteLength = src.length;
+    int prev = -1;
+    int repeated = 0;
+    int addr = start;
+    for (; addr < end; addr += 16) {
+      if (squeeze && (prev >= 0) && (addr + 16 <= byteLength) && CodecKernel.isSameRow(src, prev, src, addr)) {
+        repeated++;
+        continue;
       }
-
-      if (addr < buf.length) {
-        byte b = buf[addr];
-        int upperBits = (b >>> 4) & 0xF;
-        int lowerBits = b & 0xF;
-        char offset;
-        if (upperBits < 10) {
-          offset = '0';
-        } else {
-          offset = '7';
-        }
-        sb.append((char) (offset + upperBits));
-        if (lowerBits < 10) {
-          offset = '0';
-        } else {
-          offset = '7';
-        }
-        sb.append((char) (offset + lowerBits));
-      } else {
-        sb.append("  ");
+      if (repeated > 0) {
+        out.append(SQUEEZE_MARK);
+        repeated = 0;
       }
-      addr++;
+      renderer.append(out, src, addr, byteLength, addr);
+      prev = addr;
     }
-
-    return sb.toString();
-  }
-
-  private static String dump16BytesBin(byte[] buf, int startAddr) {
-    int addr = startAddr;
-    StringBuilder sb = new StringBuilder();
-
-    for (int i = 0; i < 16; i++) {
-      if (i == 8) {
-        sb.append("  ");
-      } else if (i > 0) {
-        sb.append(" ");
+    if (repeated > 0) {
+      if (repeated > 1) {
+        out.append(SQUEEZE_MARK);
       }
-
-      if (addr < buf.length) {
-        byte b = buf[addr];
-        int v = b & 0xff;
-        String bin = leftPad(Integer.toBinaryString(v), "0", 8, false);
-        sb.append(bin);
-      } else {
-        sb.append("        ");
-      }
-      addr++;
+      addr -= 16;
+      renderer.append(out, src, addr, byteLength, addr);
     }
+  }
 
-    return sb.toString();
+  /**
+   * Dump the header lines.
+   *
+   * @param out
+   *          the sink to append the header
+   * @param bin
+   *          true for the binary layout, false for the hex layout
+   * @param address
+   *          true if the rows have the address column
+   * @param ascii
+   *          true if the rows have the ASCII column
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  static void dumpHeader(Appendable out, boolean bin, boolean address, boolean ascii) throws IOException {
+    dumpHeader(out, bin, address, (ascii ? "ASCII" : null));
   }
 
-  private static String dumpAscii(byte[] buf, int startAddr) {
-    StringBuilder sb = new StringBuilder();
-    int addr = startAddr;
-    for (int i = 0; i < 16; i++) {
-      if (addr < buf.length) {
-        byte b = buf[addr];
-        if ((b >= 0x20) && (b <= 0x7E)) {
-          try {
-            String ch = new String(buf, addr, 1, "UTF-8");
-            sb.append(ch);
-          } catch (Exception e) {
-            sb.append(".");
-          }
-        } else {
-          sb.append(".");
-        }
-      } else {
-        sb.append(" ");
-      }
-      addr++;
+  /**
+   * Dump the header lines with the label of the text column.
+   *
+   * @param out
+   *          the sink to append the header
+   * @param bin
+   *          true for the binary layout, false for the hex layout
+   * @param address
+   *          true if the rows have the address column
+   * @param label
+   *          the label of the text column, or null if the rows have no text
+   *          column
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  static void dumpHeader(Appendable out, boolean bin, boolean address, String label) throws IOException {
+    if (address) {
+      out.append("Address    ");
     }
-    return sb.toString();
+    if (bin) {
+      out.append("+0       +1       +2       +3       +4       +5       +6       +7        +8       +9       +A       +B       +C       +D       +E       +F      ");
+    } else {
+      out.append("+0 +1 +2 +3 +4 +5 +6 +7  +8 +9 +A +B +C +D +E +F");
+    }
+    if (label != null) {
+      out.append("  ");
+      out.append(label);
+    }
+    out.append('\n');
+    if (bin) {
+      out.append("-----------------------------------------------------------------------------------------------------------------------------------------------------------");
+    } else {
+      out.append("-----------------------------------------------------------");
+    }
+    if (label != null) {
+      out.append("------------------");
+    }
+    out.append('\n');
   }
 
   /**
@@ -497,77 +689,155 @@ public class BinUtil {
    * @return binary string
    */
   public static String toBinString(byte[] src, int limit, int lastBytes, int lineBreakPos) {
-    int len = src.length;
-    int dumpLen = len;
-    int lastStartPos = 0;
-    if (limit > 0) {
-      if (limit >= len) {
-        dumpLen = len;
-      } else {
-        int limitPlusLast = limit + lastBytes;
-        if (len > limitPlusLast) {
-          dumpLen = limit;
-          lastStartPos = len - lastBytes - 1;
-        } else {
-          dumpLen = len;
-        }
-      }
-    } else if (limit < 0) {
-      dumpLen = 0;
-      lastStartPos = len - lastBytes;
-      if (lastStartPos < 0) {
-        lastStartPos = 0;
-      }
+    int[] range = getDumpRange(src.length, limit, lastBytes);
+    byte[] dst = new byte[getBinStringLength(src.length, limit, range[0], range[1], lastBytes, lineBreakPos)];
+    _toBinString(src, limit, range[0], range[1], lastBytes, lineBreakPos, dst);
+    return new String(dst, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Returns the exact length of the toBinString() result.
+   */
+  private static int getBinStringLength(int len, int limit, int dumpLen, int lastStartPos, int lastBytes, int lineBreakPos) {
+    long n = getBinLength(0, dumpLen);
+    if (hasOmission(len, limit, dumpLen, lastStartPos, lastBytes)) {
+      n += 4;
+    }
+    if (lastStartPos > 0) {
+      n += getBinLength(lastStartPos, len - lastStartPos);
     }
-    return _toBinString(src, limit, dumpLen, lastStartPos, lastBytes, lineBreakPos);
+    if (lineBreakPos > 0) {
+      n++;
+    }
+    if (n > Integer.MAX_VALUE - 8) {
+      throw new OutOfMemoryError("Required array size too large");
+    }
+    return (int) n;
   }
 
-  private static String _toBinString(byte[] src, int limit, int dumpLen, int lastStartPos, int lastBytes, int lineBreakPos) {
-    StringBuilder sb = new StringBuilder();
+  private static void _toBinString(byte[] src, int limit, int dumpLen, int lastStartPos, int lastBytes, int lineBreakPos, byte[] dst) {
     int len = src.length;
+    int p = encodeBin(src, 0, dumpLen, 0, lineBreakPos, dst, 0);
+    if (hasOmission(len, limit, dumpLen, lastStartPos, lastBytes)) {
+      dst[p++] = ((lineBreakPos == 0) ? (byte) ' ' : (byte) '\n');
+      dst[p++] = '.';
+      dst[p++] = '.';
+      dst[p++] = '.';
+    }
+    if (lastStartPos > 0) {
+      p = encodeBin(src, lastStartPos, len - lastStartPos, lastStartPos, lineBreakPos, dst, p);
+    }
+    if (lineBreakPos > 0) {
+      dst[p++] = '\n';
+    }
+  }
 
-    int i = 0;
-    for (i = 0; i < dumpLen; i++) {
-      if ((i > 0) && (lineBreakPos > 0) && (i % lineBreakPos == 0)) {
-        sb.append("\n");
-      } else if (i > 0) {
-        sb.append(" ");
-      }
-
-      byte b = src[i];
-      int v = b & 0xff;
-      String bin = leftPad(Integer.toBinaryString(v), "0", 8, false);
-      sb.append(bin);
+  /**
+   * Returns the exact length of the text encodeBin() generates.
+   *
+   * @param pos
+   *          the position of the first byte in the whole sequence
+   * @param len
+   *          the number of bytes
+   * @return the number of characters
+   */
+  public static long getBinLength(long pos, int len) {
+    if (len <= 0) {
+      return 0;
     }
+    // every byte but the first one of the whole sequence has a separator
+    return len * 9L - ((pos == 0) ? 1 : 0);
+  }
 
-    if (((dumpLen > 0) && (lastStartPos > 0)) || ((limit < 0) && (len > lastBytes))) {
-      if (lineBreakPos == 0) {
-        sb.append(" ");
+  /**
+   * Encodes the bytes into "00000001 00000010 00000011 ..." with the same
+   * layout as toBinString().<br>
+   * Each byte but the first one of the whole sequence is preceded by a space,
+   * or a line break at every lineBreakPos bytes, so a long sequence can be
+   * encoded part by part.
+   *
+   * @param src
+   *          the bytes
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @param pos
+   *          the position of src[off] in the whole sequence
+   * @param lineBreakPos
+   *          line break position. 0 = no line breaks
+   * @param dst
+   *          the destination. Must have the room of getBinLength() characters
+   * @param dstPos
+   *          the start position in the destination
+   * @return the position next to the last character written
+   */
+  public static int encodeBin(byte[] src, int off, int len, long pos, int lineBreakPos, byte[] dst, int dstPos) {
+    int p = dstPos;
+    int end = off + len;
+    int col = ((lineBreakPos > 0) ? (int) (pos % lineBreakPos) : 0);
+    boolean first = (pos == 0);
+    int i = off;
+    while (i < end) {
+      if (first) {
+        first = false;
+      } else if ((lineBreakPos > 0) && (col == 0)) {
+        dst[p++] = '\n';
       } else {
-        sb.append("\n");
+        dst[p++] = ' ';
       }
-      sb.append("...");
-    }
-
-    if (lastStartPos > 0) {
-      for (i = lastStartPos; i < len; i++) {
-        if ((i > 0) && (lineBreakPos > 0) && (i % lineBreakPos == 0)) {
-          sb.append("\n");
-        } else if (i > 0) {
-          sb.append(" ");
-        }
-        byte b = src[i];
-        int v = b & 0xff;
-        String bin = leftPad(Integer.toBinaryString(v), "0", 8, false);
-        sb.append(bin);
+      // the run of bytes up to the end of the line
+      int n = end - i;
+      if ((lineBreakPos > 0) && (n > lineBreakPos - col)) {
+        n = lineBreakPos - col;
+      }
+      p = CodecKernel.encodeBinCells(src, i, n, dst, p);
+      i += n;
+      if ((lineBreakPos > 0) && ((col += n) == lineBreakPos)) {
+        col = 0;
       }
     }
+    return p;
+  }
 
-    if (lineBreakPos > 0) {
-      sb.append("\n");
+  /**
+   * Same as encodeBin(byte[], int, int, long, int, byte[], int), but encodes
+   * the blocks of bytes on the worker threads. Each block is encoded into its
+   * own region of the destination at the position given by getBinLength().
+   *
+   * @param src
+   *          the bytes
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @param pos
+   *          the position of src[off] in the whole sequence
+   * @param lineBreakPos
+   *          line break position. 0 = no line breaks
+   * @param dst
+   *          the destination. Must have the room of getBinLength() characters
+   * @param dstPos
+   *          the start position in the destination
+   * @param executor
+   *          the executor to encode the blocks, or null to encode them on the
+   *          current thread
+   * @return the position next to the last character written
+   * @throws IOException
+   *           If a block fails
+   */
+  public static int encodeBin(byte[] src, int off, int len, long pos, int lineBreakPos, byte[] dst, int dstPos, ChunkExecutor executor) throws IOException {
+    if ((executor == null) || (len <= PARALLEL_BLOCK_SIZE)) {
+      return encodeBin(src, off, len, pos, lineBreakPos, dst, dstPos);
     }
-
-    return sb.toString();
+    int blocks = (len + PARALLEL_BLOCK_SIZE - 1) / PARALLEL_BLOCK_SIZE;
+    executor.invoke(blocks, (i) -> {
+      int skip = i * PARALLEL_BLOCK_SIZE;
+      int n = Math.min(PARALLEL_BLOCK_SIZE, len - skip);
+      int p = dstPos + (int) getBinLength(pos, skip);
+      encodeBin(src, off + skip, n, pos + skip, lineBreakPos, dst, p);
+    });
+    return dstPos + (int) getBinLength(pos, len);
   }
 
   /**
@@ -608,7 +878,19 @@ public class BinUtil {
    * @return hex string
    */
   public static String toHexString(byte[] src, int limit, int lastBytes, int lineBreakPos) {
-    int len = src.length;
+    int[] range = getDumpRange(src.length, limit, lastBytes);
+    byte[] dst = new byte[getHexStringLength(src.length, limit, range[0], range[1], lastBytes, lineBreakPos)];
+    _toHexString(src, limit, range[0], range[1], lastBytes, lineBreakPos, dst);
+    return new String(dst, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Returns the range to dump for toHexString() / toBinString().
+   *
+   * @return {the number of bytes to dump from the head, the start position of
+   *         the tail part (0 = no tail part)}
+   */
+  private static int[] getDumpRange(int len, int limit, int lastBytes) {
     int dumpLen = len;
     int lastStartPos = 0;
     if (limit > 0) {
@@ -630,86 +912,199 @@ public class BinUtil {
         lastStartPos = 0;
       }
     }
-    return _toHexString(src, limit, dumpLen, lastStartPos, lastBytes, lineBreakPos);
+    return new int[] { dumpLen, lastStartPos };
   }
 
-  private static String _toHexString(byte[] src, int limit, int dumpLen, int lastStartPos, int lastBytes, int lineBreakPos) {
-    StringBuilder sb = new StringBuilder();
-    int len = src.length;
-
-    int col = 0;
-    for (int i = 0; i < dumpLen; i++) {
-      if (col > 0) {
-        sb.append(' ');
-      }
-
-      byte b = src[i];
-      int upperBits = (b >>> 4) & 0xF;
-      int lowerBits = b & 0xF;
-      char offset;
-      if (upperBits < 10) {
-        offset = '0';
-      } else {
-        offset = '7';
-      }
-      sb.append((char) (offset + upperBits));
-      if (lowerBits < 10) {
-        offset = '0';
-      } else {
-        offset = '7';
-      }
-      sb.append((char) (offset + lowerBits));
+  private static boolean hasOmission(int len, int limit, int dumpLen, int lastStartPos, int lastBytes) {
+    return ((dumpLen > 0) && (lastStartPos > 0)) || ((limit < 0) && (len > lastBytes));
+  }
 
-      if ((lineBreakPos > 0) && (((i + 1) % lineBreakPos) == 0)) {
-        sb.append("\n");
-        col = 0;
-      } else {
-        col++;
-      }
+  /**
+   * Returns the exact length of the toHexString() result.
+   */
+  private static int getHexStringLength(int len, int limit, int dumpLen, int lastStartPos, int lastBytes, int lineBreakPos) {
+    long n = getHexLength(0, dumpLen, false, lineBreakPos);
+    boolean openLine = isOpenLine(dumpLen, dumpLen, lineBreakPos);
+    if (hasOmission(len, limit, dumpLen, lastStartPos, lastBytes)) {
+      n += 3;
     }
-
-    if (((dumpLen > 0) && (lastStartPos > 0)) || ((limit < 0) && (len > lastBytes))) {
-      sb.append(" ..");
+    if (lastStartPos > 0) {
+      n += getHexLength(lastStartPos, len - lastStartPos, false, lineBreakPos);
+      openLine = isOpenLine(len - lastStartPos, len, lineBreakPos);
+    }
+    if (openLine) {
+      n++;
     }
+    if (n > Integer.MAX_VALUE - 8) {
+      throw new OutOfMemoryError("Required array size too large");
+    }
+    return (int) n;
+  }
+
+  /**
+   * Returns whether the last line of a run is not terminated.
+   *
+   * @param count
+   *          the number of bytes in the run
+   * @param end
+   *          the position next to the last byte
+   * @param lineBreakPos
+   *          line break position
+   */
+  private static boolean isOpenLine(int count, long end, int lineBreakPos) {
+    return (count > 0) && !((lineBreakPos > 0) && ((end % lineBreakPos) == 0));
+  }
 
+  private static void _toHexString(byte[] src, int limit, int dumpLen, int lastStartPos, int lastBytes, int lineBreakPos, byte[] dst) {
+    int len = src.length;
+    int p = encodeHex(src, 0, dumpLen, 0, false, lineBreakPos, dst, 0);
+    boolean openLine = isOpenLine(dumpLen, dumpLen, lineBreakPos);
+    if (hasOmission(len, limit, dumpLen, lastStartPos, lastBytes)) {
+      dst[p++] = ' ';
+      dst[p++] = '.';
+      dst[p++] = '.';
+    }
     if (lastStartPos > 0) {
-      col = 0;
-      for (int i = lastStartPos; i < len; i++) {
-        if (col > 0) {
-          sb.append(' ');
-        }
+      p = encodeHex(src, lastStartPos, len - lastStartPos, lastStartPos, false, lineBreakPos, dst, p);
+      openLine = isOpenLine(len - lastStartPos, len, lineBreakPos);
+    }
+    if (openLine) {
+      dst[p++] = '\n';
+    }
+  }
 
-        byte b = src[i];
-        int upperBits = (b >>> 4) & 0xF;
-        int lowerBits = b & 0xF;
-        char offset;
-        if (upperBits < 10) {
-          offset = '0';
-        } else {
-          offset = '7';
-        }
-        sb.append((char) (offset + upperBits));
-        if (lowerBits < 10) {
-          offset = '0';
-        } else {
-          offset = '7';
-        }
-        sb.append((char) (offset + lowerBits));
+  /**
+   * Returns the exact length of the text encodeHex() generates.
+   *
+   * @param pos
+   *          the position of the first byte in the whole sequence
+   * @param len
+   *          the number of bytes
+   * @param continued
+   *          true if bytes precede in the same sequence
+   * @param lineBreakPos
+   *          line break position. 0 = no line breaks
+   * @return the number of characters
+   */
+  public static long getHexLength(long pos, int len, boolean continued, int lineBreakPos) {
+    if (len <= 0) {
+      return 0;
+    }
+    long end = pos + len;
+    long separators = len - 1;
+    long lineBreaks = 0;
+    if (lineBreakPos > 0) {
+      lineBreaks = (end / lineBreakPos) - (pos / lineBreakPos);
+      // a line break replaces the space before the first byte of the next line
+      separators -= ((end - 1) / lineBreakPos) - (pos / lineBreakPos);
+    }
+    if (continued && !((lineBreakPos > 0) && ((pos % lineBreakPos) == 0))) {
+      separators++;
+    }
+    return len * 2L + separators + lineBreaks;
+  }
 
-        if ((lineBreakPos > 0) && (((i + 1) % lineBreakPos) == 0)) {
-          sb.append("\n");
-          col = 0;
-        } else {
-          col++;
-        }
+  /**
+   * Encodes the bytes into "01 02 03 ..." with the same layout as
+   * toHexString().<br>
+   * A line break is put after every lineBreakPos bytes counted from the start
+   * of the whole sequence, so a long sequence can be encoded part by part.
+   *
+   * @param src
+   *          the bytes
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @param pos
+   *          the position of src[off] in the whole sequence
+   * @param continued
+   *          true if bytes precede in the same sequence, to put a separator
+   *          before the first byte
+   * @param lineBreakPos
+   *          line break position. 0 = no line breaks
+   * @param dst
+   *          the destination. Must have the room of getHexLength() characters
+   * @param dstPos
+   *          the start position in the destination
+   * @return the position next to the last character written
+   */
+  public static int encodeHex(byte[] src, int off, int len, long pos, boolean continued, int lineBreakPos, byte[] dst, int dstPos) {
+    int p = dstPos;
+    if (len <= 0) {
+      return p;
+    }
+    if (lineBreakPos <= 0) {
+      if (continued) {
+        dst[p++] = ' ';
       }
+      return CodecKernel.encodeHexCells(src, off, len, dst, p);
     }
-
-    if (col > 0) {
-      sb.append("\n");
+    int end = off + len;
+    int col = (int) (pos % lineBreakPos);
+    int i = off;
+    while (i < end) {
+      if (continued && (col != 0)) {
+        dst[p++] = ' ';
+      }
+      // the run of bytes up to the end of the line
+      int n = end - i;
+      if (n > lineBreakPos - col) {
+        n = lineBreakPos - col;
+      }
+      p = CodecKernel.encodeHexCells(src, i, n, dst, p);
+      i += n;
+      continued = true;
+      if ((col += n) == lineBreakPos) {
+        dst[p++] = '\n';
+        col = 0;
+      }
     }
+    return p;
+  }
 
-    return sb.toString();
+  /**
+   * Same as encodeHex(byte[], int, int, long, boolean, int, byte[], int), but
+   * encodes the blocks of bytes on the worker threads. Each block is encoded
+   * into its own region of the destination at the position given by
+   * getHexLength().
+   *
+   * @param src
+   *          the bytes
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @param pos
+   *          the position of src[off] in the whole sequence
+   * @param continued
+   *          true if bytes precede in the same sequence, to put a separator
+   *          before the first byte
+   * @param lineBreakPos
+   *          line break position. 0 = no line breaks
+   * @param dst
+   *          the destination. Must have the room of getHexLength() characters
+   * @param dstPos
+   *          the start position in the destination
+   * @param executor
+   *          the executor to encode the blocks, or null to encode them on the
+   *          current thread
+   * @return the position next to the last character written
+   * @throws IOException
+   *           If a block fails
+   */
+  public static int encodeHex(byte[] src, int off, int len, long pos, boolean continued, int lineBreakPos, byte[] dst, int dstPos, ChunkExecutor executor) throws IOException {
+    if ((executor == null) || (len <= PARALLEL_BLOCK_SIZE)) {
+      return encodeHex(src, off, len, pos, continued, lineBreakPos, dst, dstPos);
+    }
+    int blocks = (len + PARALLEL_BLOCK_SIZE - 1) / PARALLEL_BLOCK_SIZE;
+    executor.invoke(blocks, (i) -> {
+      int skip = i * PARALLEL_BLOCK_SIZE;
+      int n = Math.min(PARALLEL_BLOCK_SIZE, len - skip);
+      int p = dstPos + (int) getHexLength(pos, skip, continued, lineBreakPos);
+      encodeHex(src, off + skip, n, pos + skip, (continued || (i > 0)), lineBreakPos, dst, p);
+    });
+    return dstPos + (int) getHexLength(pos, len, continued, lineBreakPos);
   }
 
   /**
@@ -723,25 +1118,7 @@ public class BinUtil {
     int len = src.length;
     String[] hex = new String[len];
     for (int i = 0; i < len; i++) {
-      byte b = src[i];
-      int upperBits = (b >>> 4) & 0xF;
-      int lowerBits = b & 0xF;
-      char offset;
-
-      if (upperBits < 10) {
-        offset = '0';
-      } else {
-        offset = '7';
-      }
-      char cU = ((char) (offset + upperBits));
-
-      if (lowerBits < 10) {
-        offset = '0';
-      } else {
-        offset = '7';
-      }
-      char cL = ((char) (offset + lowerBits));
-      hex[i] = String.valueOf(cU) + String.valueOf(cL);
+      hex[i] = HEX_STRINGS[src[i] & 0xFF];
     }
     return hex;
   }
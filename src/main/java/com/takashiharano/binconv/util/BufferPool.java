@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A bounded pool of reusable byte buffers.<br>
+ * The buffers are grouped in size classes of powers of two from MIN_CLASS_SIZE
+ * to MAX_CLASS_SIZE, and a request is served from the smallest class that
+ * fits it. Larger requests are allocated every time and not pooled.<br>
+ * The released buffers are retained up to the limit of the total size; beyond
+ * that they are left to the GC.<br>
+ * Heap and direct buffers are pooled separately. The pool is thread-safe.
+ */
+public class BufferPool {
+
+  /**
+   * The smallest size class.
+   */
+  public static final int MIN_CLASS_SIZE = 4 * 1024;
+
+  /**
+   * The largest size class.
+   */
+  public static final int MAX_CLASS_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * The default limit of the total size of the retained buffers.
+   */
+  public static final long DEFAULT_MAX_RETAINED = 32 * 1024 * 1024;
+
+  private static final int MIN_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+  private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_CLASS_SHIFT + 1;
+
+  private static final BufferPool defaultPool = new BufferPool(DEFAULT_MAX_RETAINED);
+
+  private final long maxRetained;
+  private final ArrayDeque<ByteBuffer>[] heapBuffers;
+  private final ArrayDeque<ByteBuffer>[] directBuffers;
+  private long retained;
+  private long hits;
+  private long misses;
+
+  /**
+   * Creates a pool.
+   *
+   * @param maxRetained
+   *          the limit of the total size of the retained buffers in bytes
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public BufferPool(long maxRetained) {
+    this.maxRetained = maxRetained;
+    heapBuffers = new ArrayDeque[CLASS_COUNT];
+    directBuffers = new ArrayDeque[CLASS_COUNT];
+    for (int i = 0; i < CLASS_COUNT; i++) {
+      heapBuffers[i] = new ArrayDeque<>();
+      directBuffers[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * Returns the pool shared in the process.
+   *
+   * @return the default pool
+   */
+  public static BufferPool getDefault() {
+    return defaultPool;
+  }
+
+  /**
+   * Borrows a heap buffer.<br>
+   * The buffer is backed by an array from offset 0. Its capacity may be larger
+   * than the requested size, and its limit is set to the requested size.
+   *
+   * @param size
+   *          the size in bytes
+   * @return the buffer
+   */
+  public ByteBuffer get(int size) {
+    return get(size, false);
+  }
+
+  /**
+   * Borrows a direct buffer.<br>
+   * Its capacity may be larger than the requested size, and its limit is set
+   * to the requested size.
+   *
+   * @param size
+   *          the size in bytes
+   * @return the buffer
+   */
+  public ByteBuffer getDirect(int size) {
+    return get(size, true);
+  }
+
+  private ByteBuffer get(int size, boolean direct) {
+    int index = getClassIndex(size);
+    ByteBuffer buf = null;
+    synchronized (this) {
+      if (index >= 0) {
+        buf = (direct ? directBuffers : heapBuffers)[index].pollFirst();
+      }
+      if (buf == null) {
+        misses++;
+      } else {
+        hits++;
+        retained -= buf.capacity();
+      }
+    }
+    if (buf == null) {
+      int capacity = ((index >= 0) ? (MIN_CLASS_SIZE << index) : size);
+      buf = (direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity));
+    }
+    buf.clear();
+    buf.limit(size);
+    return buf;
+  }
+
+  /**
+   * Returns a buffer to the pool.<br>
+   * The buffer must not be used after this, and must be released only once.
+   * The pool does not track the buffers it lends, so a buffer released twice
+   * would be lent to two borrowers at the same time.<br>
+   * Any buffer whose capacity is one of the size classes is accepted, even if
+   * it was not borrowed from the pool, provided that a heap buffer is backed by
+   * a writable array from offset 0. Other buffers, and buffers over the limit of
+   * the retained size, are ignored.
+   *
+   * @param buf
+   *          the buffer. null is ignored.
+   */
+  public void release(ByteBuffer buf) {
+    if (buf == null) {
+      return;
+    }
+    int capacity = buf.capacity();
+    if ((capacity < MIN_CLASS_SIZE) || (capacity > MAX_CLASS_SIZE) || (Integer.bitCount(capacity) != 1)) {
+      return;
+    }
+    if (!buf.isDirect() && (!buf.hasArray() || (buf.arrayOffset() != 0) || buf.isReadOnly())) {
+      return;
+    }
+    int index = Integer.numberOfTrailingZeros(capacity) - MIN_CLASS_SHIFT;
+    synchronized (this) {
+      if (retained + capacity > maxRetained) {
+        return;
+      }
+      (buf.isDirect() ? directBuffers : heapBuffers)[index].addFirst(buf);
+      retained += capacity;
+    }
+  }
+
+  /**
+   * Returns the size class index for the size.
+   *
+   * @return the index, or -1 if the size is larger than MAX_CLASS_SIZE
+   */
+  private static int getClassIndex(int size) {
+    if (size <= MIN_CLASS_SIZE) {
+      return 0;
+    }
+    if (size > MAX_CLASS_SIZE) {
+      return -1;
+    }
+    int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+    return shift - MIN_CLASS_SHIFT;
+  }
+
+  /**
+   * Returns the number of the requests served from the pool.
+   *
+   * @return the number of hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of the requests that needed a new allocation.
+   *
+   * @return the number of misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Returns the total size of the buffers held in the pool.
+   *
+   * @return the size in bytes
+   */
+  public synchronized long getRetained() {
+    return retained;
+  }
+
+  /**
+   * Discards all the retained buffers.
+   */
+  public synchronized void clear() {
+    for (int i = 0; i < CLASS_COUNT; i++) {
+      heapBuffers[i].clear();
+      directBuffers[i].clear();
+    }
+    retained = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "pool: hits=" + hits + " misses=" + misses + " retained=" + retained + " max=" + maxRetained;
+  }
+
+}
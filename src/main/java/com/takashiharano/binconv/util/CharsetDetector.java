@@ -0,0 +1,367 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Detects the charset of the bytes in a single pass.<br>
+ * The candidates UTF-16, UTF-8, EUC_JP and SJIS are tracked at once by their
+ * own state machines. A candidate is dropped when the bytes would not survive
+ * a decode/encode round trip in it, as FileUtil.checkCharset() does, and the
+ * first one left in this order is the result. The last candidate left is
+ * still checked against the rest of the bytes, and the detection ends early
+ * only when a BOM is found or no candidate is left.<br>
+ * The byte sequences that round-trip in EUC_JP and SJIS are taken from the
+ * charsets of the JVM as they appear.
+ *
+ * <pre>
+ * CharsetDetector detector = new CharsetDetector();
+ * while (!detector.isDone() &amp;&amp; (n = in.read(buf)) &gt;= 0) {
+ *   detector.update(buf, 0, n);
+ * }
+ * String charsetName = detector.getCharsetName(true);
+ * </pre>
+ */
+public class CharsetDetector {
+
+  private static final String[] CHARSET_NAMES = { "UTF-16", "UTF-8", "EUC_JP", "SJIS" };
+  private static final int UTF16 = 1;
+  private static final int UTF8 = 1 << 1;
+  private static final int EUC_JP = 1 << 2;
+  private static final int SJIS = 1 << 3;
+  private static final int ALL = UTF16 | UTF8 | EUC_JP | SJIS;
+
+  private static final int EUC_SS3 = 0x8F;
+
+  private int candidates = ALL;
+  private long count;
+  private int byte0;
+  private int byte1;
+
+  // the number of continuation bytes to come, and the range of the next one
+  private int utf8Need;
+  private int utf8Lo;
+  private int utf8Hi;
+
+  // the bytes of the current multibyte character, or -1
+  private int eucLead = -1;
+  private int eucSecond = -1;
+  private int sjisLead = -1;
+
+  /**
+   * Feeds the bytes.
+   *
+   * @param src
+   *          the bytes
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @return true if the result has been determined
+   */
+  public boolean update(byte[] src, int off, int len) {
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      if (isDone()) {
+        return true;
+      }
+      int b = src[i] & 0xFF;
+      if (count < 2) {
+        if (count == 0) {
+          byte0 = b;
+        } else {
+          byte1 = b;
+        }
+      }
+      count++;
+      // no BOM-less UTF-16 text survives the round trip
+      candidates &= ~UTF16;
+      if ((candidates & UTF8) != 0) {
+        updateUtf8(b);
+      }
+      if ((candidates & EUC_JP) != 0) {
+        updateEucJp(b);
+      }
+      if ((candidates & SJIS) != 0) {
+        updateSjis(b);
+      }
+    }
+    return isDone();
+  }
+
+  private void updateUtf8(int b) {
+    if (utf8Need > 0) {
+      if ((b < utf8Lo) || (b > utf8Hi)) {
+        candidates &= ~UTF8;
+        return;
+      }
+      utf8Need--;
+      utf8Lo = 0x80;
+      utf8Hi = 0xBF;
+      return;
+    }
+    if (b < 0x80) {
+      return;
+    }
+    utf8Lo = 0x80;
+    utf8Hi = 0xBF;
+    if ((b >= 0xC2) && (b <= 0xDF)) {
+      utf8Need = 1;
+    } else if ((b >= 0xE0) && (b <= 0xEF)) {
+      utf8Need = 2;
+      if (b == 0xE0) {
+        utf8Lo = 0xA0;
+      } else if (b == 0xED) {
+        utf8Hi = 0x9F;
+      }
+    } else if ((b >= 0xF0) && (b <= 0xF4)) {
+      utf8Need = 3;
+      if (b == 0xF0) {
+        utf8Lo = 0x90;
+      } else if (b == 0xF4) {
+        utf8Hi = 0x8F;
+      }
+    } else {
+      candidates &= ~UTF8;
+    }
+  }
+
+  private void updateEucJp(int b) {
+    if (eucLead < 0) {
+      if (!EucJp.TABLE.isSingle(b)) {
+        eucLead = b;
+      }
+      return;
+    }
+    boolean valid;
+    if (eucLead == EUC_SS3) {
+      if (eucSecond < 0) {
+        eucSecond = b;
+        return;
+      }
+      valid = EucJp.TABLE.isTriple(eucSecond, b);
+      eucSecond = -1;
+    } else {
+      valid = EucJp.TABLE.isDouble(eucLead, b);
+    }
+    eucLead = -1;
+    if (!valid) {
+      candidates &= ~EUC_JP;
+    }
+  }
+
+  private void updateSjis(int b) {
+    if (sjisLead < 0) {
+      if (!Sjis.TABLE.isSingle(b)) {
+        sjisLead = b;
+      }
+      return;
+    }
+    if (!Sjis.TABLE.isDouble(sjisLead, b)) {
+      candidates &= ~SJIS;
+    }
+    sjisLead = -1;
+  }
+
+  /**
+   * Returns whether the result has been determined regardless of the rest of
+   * the bytes.
+   *
+   * @return true if no more bytes are needed
+   */
+  public boolean isDone() {
+    if (count < 3) {
+      // a BOM is recognized only if the bytes are followed by more
+      if ((count == 0) || (byte0 == 0xFE) || (byte0 == 0xFF)) {
+        return false;
+      }
+    }
+    if (hasBom()) {
+      return true;
+    }
+    return (candidates == 0);
+  }
+
+  /**
+   * Returns the detected charset name.
+   *
+   * @param complete
+   *          true if all of the bytes have been fed. If false, the bytes are
+   *          regarded as a sample from the beginning, and a character cut off
+   *          at the end of the sample is not counted as an error.
+   * @return the charset name, or null if the bytes match none of the candidates
+   */
+  public String getCharsetName(boolean complete) {
+    if (hasBom()) {
+      return (byte0 == 0xFE ? "UTF-16BE" : "UTF-16LE");
+    }
+    int alive = candidates;
+    // a character cut off by the end of the examined bytes is not an error
+    if (complete) {
+      if (utf8Need > 0) {
+        alive &= ~UTF8;
+      }
+      if (eucLead >= 0) {
+        alive &= ~EUC_JP;
+      }
+      if (sjisLead >= 0) {
+        alive &= ~SJIS;
+      }
+    }
+    if (alive == 0) {
+      return null;
+    }
+    return CHARSET_NAMES[Integer.numberOfTrailingZeros(alive)];
+  }
+
+  private boolean hasBom() {
+    if (count < 3) {
+      return false;
+    }
+    return ((byte0 == 0xFE) && (byte1 == 0xFF)) || ((byte0 == 0xFF) && (byte1 == 0xFE));
+  }
+
+  /**
+   * Detects the charset of the bytes.
+   *
+   * @param src
+   *          the bytes
+   * @param sampleSize
+   *          the maximum number of bytes to examine from the beginning. 0 or
+   *          less to examine all
+   * @return the charset name, or null if the bytes match none of the candidates
+   */
+  public static String detect(byte[] src, int sampleSize) {
+    int len = src.length;
+    boolean complete = true;
+    if ((sampleSize > 0) && (sampleSize < len)) {
+      len = sampleSize;
+      complete = false;
+    }
+    CharsetDetector detector = new CharsetDetector();
+    detector.update(src, 0, len);
+    return detector.getCharsetName(complete);
+  }
+
+  /**
+   * The byte sequences that survive the round trip in a double-byte charset.
+   * The table for the bytes following a lead byte is built when the lead byte
+   * appears for the first time.
+   */
+  private static class MultiByteTable {
+
+    private final CharsetDecoder decoder;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars = CharBuffer.allocate(4);
+    private final ByteBuffer bytes = ByteBuffer.allocate(16);
+    private final boolean[] single = new boolean[256];
+    private final int tripleLead;
+    private final AtomicReferenceArray<boolean[]> doubles = new AtomicReferenceArray<>(256);
+    private final AtomicReferenceArray<boolean[]> triples = new AtomicReferenceArray<>(256);
+
+    MultiByteTable(String charsetName, int tripleLead) {
+      Charset charset = Charset.forName(charsetName);
+      decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+      encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.tripleLead = tripleLead;
+      byte[] seq = new byte[1];
+      for (int b = 0; b < 256; b++) {
+        seq[0] = (byte) b;
+        single[b] = roundTrips(seq);
+      }
+    }
+
+    boolean isSingle(int b) {
+      return single[b];
+    }
+
+    boolean isDouble(int lead, int b) {
+      boolean[] row = doubles.get(lead);
+      if (row == null) {
+        row = buildRow(doubles, new byte[] { (byte) lead, 0 });
+      }
+      return row[b];
+    }
+
+    boolean isTriple(int b1, int b2) {
+      if (tripleLead < 0) {
+        return false;
+      }
+      boolean[] row = triples.get(b1);
+      if (row == null) {
+        row = buildRow(triples, new byte[] { (byte) tripleLead, (byte) b1, 0 });
+      }
+      return row[b2];
+    }
+
+    /**
+     * Builds the row for the sequence whose last byte varies.
+     */
+    private synchronized boolean[] buildRow(AtomicReferenceArray<boolean[]> rows, byte[] seq) {
+      int index = seq[seq.length - 2] & 0xFF;
+      boolean[] row = rows.get(index);
+      if (row != null) {
+        return row;
+      }
+      row = new boolean[256];
+      for (int b = 0; b < 256; b++) {
+        seq[seq.length - 1] = (byte) b;
+        row[b] = roundTrips(seq);
+      }
+      rows.set(index, row);
+      return row;
+    }
+
+    private boolean roundTrips(byte[] seq) {
+      chars.clear();
+      bytes.clear();
+      decoder.reset();
+      encoder.reset();
+      decoder.decode(ByteBuffer.wrap(seq), chars, true);
+      decoder.flush(chars);
+      chars.flip();
+      encoder.encode(chars, bytes, true);
+      encoder.flush(bytes);
+      bytes.flip();
+      return bytes.equals(ByteBuffer.wrap(seq));
+    }
+
+  }
+
+  private static class EucJp {
+    static final MultiByteTable TABLE = new MultiByteTable("EUC_JP", EUC_SS3);
+  }
+
+  private static class Sjis {
+    static final MultiByteTable TABLE = new MultiByteTable("SJIS", -1);
+  }
+
+}
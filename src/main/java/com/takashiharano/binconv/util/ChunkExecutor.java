@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a task for each chunk of the data on a ForkJoinPool.<br>
+ * The range of the chunks is split in halves recursively, so that the idle
+ * workers steal the rest. The caller puts the result of each chunk into its
+ * own region of the output, and writes out the output in order after the
+ * job is joined.<br>
+ * An exception thrown by a task is not rethrown on the worker thread, but
+ * kept and rethrown by join() as it is. If several chunks fail, the exception
+ * of the first chunk is thrown, which is the same as the sequential run.
+ *
+ * <pre>
+ * try (ChunkExecutor executor = new ChunkExecutor(threads)) {
+ *   executor.invoke(count, index -&gt; convert(index));
+ * }
+ * </pre>
+ */
+public class ChunkExecutor implements AutoCloseable {
+
+  private final ForkJoinPool pool;
+
+  /**
+   * The task for a chunk.
+   */
+  public interface Task {
+    /**
+     * Processes the chunk.
+     *
+     * @param index
+     *          the index of the chunk
+     * @throws IOException
+     *           If an I/O error occurs
+     */
+    void run(int index) throws IOException;
+  }
+
+  /**
+   * Creates an executor.
+   *
+   * @param threads
+   *          the number of the worker threads
+   */
+  public ChunkExecutor(int threads) {
+    pool = new ForkJoinPool(threads);
+  }
+
+  /**
+   * Returns the number of the worker threads.
+   *
+   * @return the number of threads
+   */
+  public int getThreads() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * Starts the tasks for the chunks, and returns without waiting for them.
+   *
+   * @param count
+   *          the number of the chunks
+   * @param task
+   *          the task
+   * @return the job to join
+   */
+  public Job submit(int count, Task task) {
+    Job job = new Job(count);
+    if (count > 0) {
+      job.action = pool.submit(new ChunkAction(task, job.errors, 0, count));
+    }
+    return job;
+  }
+
+  /**
+   * Runs the tasks for the chunks, and waits for them.
+   *
+   * @param count
+   *          the number of the chunks
+   * @param task
+   *          the task
+   * @throws IOException
+   *           If a task throws it
+   */
+  public void invoke(int count, Task task) throws IOException {
+    submit(count, task).join();
+  }
+
+  /**
+   * Shuts down the worker threads.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * The tasks running for the chunks.
+   */
+  public static class Job {
+
+    private final Throwable[] errors;
+    private ForkJoinTask<?> action;
+
+    private Job(int count) {
+      errors = new Throwable[count];
+    }
+
+    /**
+     * Waits for the tasks to finish, and rethrows the exception of the first
+     * chunk that failed.
+     *
+     * @throws IOException
+     *           If a task throws it
+     */
+    public void join() throws IOException {
+      if (action == null) {
+        return;
+      }
+      action.join();
+      action = null;
+      for (int i = 0; i < errors.length; i++) {
+        Throwable e = errors[i];
+        if (e == null) {
+          continue;
+        }
+        if (e instanceof IOException) {
+          throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+          throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+          throw (Error) e;
+        }
+        throw new IOException(e);
+      }
+    }
+
+  }
+
+  private static class ChunkAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Task task;
+    private final Throwable[] errors;
+    private final int from;
+    private final int to;
+
+    ChunkAction(Task task, Throwable[] errors, int from, int to) {
+      this.task = task;
+      this.errors = errors;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new ChunkAction(task, errors, from, mid), new ChunkAction(task, errors, mid, to));
+        return;
+      }
+      try {
+        task.run(from);
+      } catch (Throwable e) {
+        // the slots are read after join(), which happens-after this
+        errors[from] = e;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The inner loops of the converters.<br>
+ * java.util.HexFormat is not used: it builds a String for every call, and
+ * takes longer than the tables here for both encoding and parsing.
+ */
+public final class CodecKernel {
+
+  private static final byte[] BASE64_TABLE = new byte[64];
+  static {
+    String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for (int i = 0; i < chars.length(); i++) {
+      BASE64_TABLE[i] = (byte) chars.charAt(i);
+    }
+  }
+
+  private CodecKernel() {
+  }
+
+  /**
+   * Encodes the bytes into "01 02 03 ...". No separator is put before the first
+   * byte and after the last byte.
+   *
+   * @param src
+   *          the bytes
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @param dst
+   *          the destination. Must have the room of (len * 3 - 1) bytes
+   * @param dstPos
+   *          the start position in the destination
+   * @return the position next to the last character written
+   */
+  public static int encodeHexCells(byte[] src, int off, int len, byte[] dst, int dstPos) {
+    byte[] hex = BinUtil.HEX_BYTES;
+    int p = dstPos;
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      if (i > off) {
+        dst[p++] = ' ';
+      }
+      int t = (src[i] & 0xFF) << 1;
+      dst[p++] = hex[t];
+      dst[p++] = hex[t + 1];
+    }
+    return p;
+  }
+
+  /**
+   * Encodes the bytes into "00000001 00000010 ...". No separator is put before
+   * the first byte and after the last byte.
+   *
+   * @param src
+   *          the bytes
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @param dst
+   *          the destination. Must have the room of (len * 9 - 1) bytes
+   * @param dstPos
+   *          the start position in the destination
+   * @return the position next to the last character written
+   */
+  public static int encodeBinCells(byte[] src, int off, int len, byte[] dst, int dstPos) {
+    byte[] bin = BinUtil.BIN_BYTES;
+    int p = dstPos;
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      if (i > off) {
+        dst[p++] = ' ';
+      }
+      System.arraycopy(bin, (src[i] & 0xFF) << 3, dst, p, 8);
+      p += 8;
+    }
+    return p;
+  }
+
+  /**
+   * Decodes the cells of two hex digits followed by a space or LF, such as
+   * "01 02 03 ", from the beginning until a cell of any other form is found.
+   *
+   * @param src
+   *          the text in ASCII
+   * @param off
+   *          the start offset
+   * @param count
+   *          the maximum number of cells to decode. src must have (count * 3)
+   *          bytes from off
+   * @param dst
+   *          the destination. Must have the room of count bytes
+   * @param dstPos
+   *          the start position in the destination
+   * @return the number of cells decoded
+   */
+  public static int decodeHexCells(byte[] src, int off, int count, byte[] dst, int dstPos) {
+    byte[] table = BinUtil.DIGIT_TABLE;
+    int s = off;
+    int p = dstPos;
+    for (int i = 0; i < count; i++) {
+      int hi = table[src[s] & 0xFF];
+      int lo = table[src[s + 1] & 0xFF];
+      byte sep = src[s + 2];
+      if ((hi < 0) || (hi >= 16) || (lo < 0) || (lo >= 16) || ((sep != ' ') && (sep != '\n'))) {
+        return i;
+      }
+      dst[p++] = (byte) ((hi << 4) | lo);
+      s += 3;
+    }
+    return count;
+  }
+
+  /**
+   * Encodes the bytes into Base64 with padding.
+   *
+   * @param src
+   *          the bytes
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @param dst
+   *          the destination. Must have the room of ((len + 2) / 3 * 4) bytes
+   * @param dstPos
+   *          the start position in the destination
+   * @return the position next to the last character written
+   */
+  public static int encodeBase64(byte[] src, int off, int len, byte[] dst, int dstPos) {
+    byte[] table = BASE64_TABLE;
+    int p = dstPos;
+    int end = off + len - (len % 3);
+    for (int i = off; i < end; i += 3) {
+      int bits = ((src[i] & 0xFF) << 16) | ((src[i + 1] & 0xFF) << 8) | (src[i + 2] & 0xFF);
+      dst[p++] = table[(bits >>> 18) & 0x3F];
+      dst[p++] = table[(bits >>> 12) & 0x3F];
+      dst[p++] = table[(bits >>> 6) & 0x3F];
+      dst[p++] = table[bits & 0x3F];
+    }
+    int rem = off + len - end;
+    if (rem > 0) {
+      int bits = (src[end] & 0xFF) << 16;
+      if (rem == 2) {
+        bits |= (src[end + 1] & 0xFF) << 8;
+      }
+      dst[p++] = table[(bits >>> 18) & 0x3F];
+      dst[p++] = table[(bits >>> 12) & 0x3F];
+      dst[p++] = (rem == 2 ? table[(bits >>> 6) & 0x3F] : (byte) '=');
+      dst[p++] = '=';
+    }
+    return p;
+  }
+
+  /**
+   * Compares the 16 bytes of the rows of the address dump.
+   *
+   * @param a
+   *          the bytes of a row
+   * @param aOff
+   *          the start offset of the row in a
+   * @param b
+   *          the bytes of the other row
+   * @param bOff
+   *          the start offset of the row in b
+   * @return true if the 16 bytes are the same
+   */
+  public static boolean isSameRow(byte[] a, int aOff, byte[] b, int bOff) {
+    // two 8-byte words instead of 16 bytes
+    ByteBuffer x = ByteBuffer.wrap(a);
+    ByteBuffer y = ByteBuffer.wrap(b);
+    return (x.getLong(aOff) == y.getLong(bOff)) && (x.getLong(aOff + 8) == y.getLong(bOff + 8));
+  }
+
+}
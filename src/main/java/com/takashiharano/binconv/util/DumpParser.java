@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import com.takashiharano.binconv.IllegalSourceException;
+
+/**
+ * Parses the address dump generated by DumpWriter or BinUtil.dumpHex() /
+ * dumpBin() line by line, and writes out the bytes.<br>
+ * The header lines are skipped. For each row, the address column is read and
+ * checked to continue from the previous row, the byte cells are decoded, and
+ * the ASCII column is ignored. The cells are located relative to the ':' after
+ * the address, so any width of the address is accepted. The last row may be
+ * short, and the lines may end with LF, CR or CRLF.<br>
+ * A row of "..." stands for the rows omitted by the limit of the dump. The
+ * omitted bytes cannot be restored, so the rows after it are written
+ * following the rows before it.<br>
+ * A row of "*" stands for the rows that are the same as the row above, as
+ * written in the squeeze mode. They are restored up to the address of the
+ * next row.<br>
+ * Errors are reported with the line number.
+ *
+ * <pre>
+ * Address    +0 +1 +2 +3 +4 +5 +6 +7  +8 +9 +A +B +C +D +E +F  ASCII
+ * -----------------------------------------------------------------------------
+ * 00000000 : 41 42 43 44 45 46 47 48  49 4A 4B 4C 4D 4E 4F 50  ABCDEFGHIJKLMNOP
+ * 00000010 : 51 52 53                                          QRS
+ * </pre>
+ */
+public class DumpParser {
+
+  private static final int ROW_SIZE = 16;
+  private static final int BUFFER_SIZE = 8192;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_ADDR_DIGITS = 16;
+  private static final int MAX_LINE_LENGTH = 256;
+  private static final byte[] HEADER_SIGNATURE = { 'A', 'd', 'd', 'r', 'e', 's', 's' };
+  private static final byte[] OMISSION = { '.', '.', '.' };
+  private static final byte SQUEEZE = '*';
+
+  private final OutputStream out;
+  private final int radix;
+  private final int unitSize;
+  private final boolean lenient;
+  private final int cellsLength;
+  private final byte[] line = new byte[MAX_LINE_LENGTH];
+  private int lineLen;
+  private long lineNo;
+  private long nextAddr;
+  private boolean omitted;
+  private final byte[] row = new byte[ROW_SIZE];
+  private int rowLen;
+  private long squeezeLineNo;
+  private final byte[] buf = new byte[BUFFER_SIZE];
+  private int pos;
+
+  /**
+   * Creates a parser.
+   *
+   * @param out
+   *          the output stream to write the decoded bytes
+   * @param radix
+   *          the radix of values. 16 or 2
+   * @param unitSize
+   *          the number of digits per byte. 2 or 8
+   * @param lenient
+   *          true to skip the characters other than the digits and whitespace
+   *          in the byte cells. The digits of a byte may then be split by
+   *          whitespace, the incomplete byte at the end of a row is discarded,
+   *          and the addresses are not checked.
+   */
+  public DumpParser(OutputStream out, int radix, int unitSize, boolean lenient) {
+    BinUtil.checkRadix(radix);
+    this.out = out;
+    this.radix = radix;
+    this.unitSize = unitSize;
+    this.lenient = lenient;
+    // cells and separators, and the extra space after the 8th cell
+    this.cellsLength = (unitSize + 1) * ROW_SIZE;
+  }
+
+  /**
+   * Parses the whole stream and writes out the bytes.
+   *
+   * @param in
+   *          the source stream
+   * @throws IOException
+   *           If an I/O error occurs
+   * @throws IllegalSourceException
+   *           If the dump is broken
+   */
+  public void parse(InputStream in) throws IOException {
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer bb = pool.get(READ_BUFFER_SIZE);
+    try {
+      parse(in, bb.array());
+    } finally {
+      pool.release(bb);
+    }
+    out.write(buf, 0, pos);
+    pos = 0;
+  }
+
+  private void parse(InputStream in, byte[] b) throws IOException {
+    boolean cr = false;
+    int n;
+    while ((n = in.read(b, 0, READ_BUFFER_SIZE)) >= 0) {
+      for (int i = 0; i < n; i++) {
+        byte c = b[i];
+        if ((c == '\n') && cr) {
+          cr = false;
+          continue;
+        }
+        cr = (c == '\r');
+        if ((c == '\n') || (c == '\r')) {
+          parseLine();
+        } else if (lineLen < MAX_LINE_LENGTH) {
+          // the rest of a long line is in the ASCII column
+          line[lineLen++] = c;
+        }
+      }
+    }
+    if (lineLen > 0) {
+      parseLine();
+    }
+    if ((squeezeLineNo > 0) && !lenient) {
+      throw new IllegalSourceException("No row after the repeated rows (*) at line " + squeezeLineNo);
+    }
+  }
+
+  private void parseLine() throws IOException {
+    lineNo++;
+    int end = lineLen;
+    lineLen = 0;
+    int start = 0;
+    while ((start < end) && (line[start] <= ' ')) {
+      start++;
+    }
+    while ((end > start) && (line[end - 1] <= ' ')) {
+      end--;
+    }
+    if (start == end) {
+      return;
+    }
+    if (startsWith(line, start, end, HEADER_SIGNATURE) || (line[start] == '-')) {
+      return;
+    }
+    if ((end - start == OMISSION.length) && startsWith(line, start, end, OMISSION)) {
+      omitted = true;
+      squeezeLineNo = 0;
+      return;
+    }
+    if ((end - start == 1) && (line[start] == SQUEEZE)) {
+      if ((rowLen == ROW_SIZE) && !omitted) {
+        squeezeLineNo = lineNo;
+      } else if (!lenient) {
+        throw new IllegalSourceException("No row to repeat at line " + lineNo);
+      }
+      return;
+    }
+    parseRow(start, end);
+  }
+
+  private void parseRow(int start, int end) throws IOException {
+    byte[] table = BinUtil.DIGIT_TABLE;
+    long addr = 0;
+    int i = start;
+    for (; i < end; i++) {
+      int d = table[line[i] & 0xFF];
+      if ((d < 0) || (d >= 16)) {
+        break;
+      }
+      addr = (addr << 4) | d;
+    }
+    int digits = i - start;
+    while ((i < end) && (line[i] == ' ')) {
+      i++;
+    }
+    if ((digits == 0) || (digits > MAX_ADDR_DIGITS) || (i == end) || (line[i] != ':')) {
+      throw new IllegalSourceException("Illegal address at line " + lineNo);
+    }
+    if (squeezeLineNo > 0) {
+      squeezeLineNo = 0;
+      repeatRow(addr);
+    }
+    if (lenient) {
+      omitted = false;
+    } else if (omitted) {
+      if (addr < nextAddr) {
+        throw new IllegalSourceException("Address is not contiguous at line " + lineNo);
+      }
+      omitted = false;
+    } else if (addr != nextAddr) {
+      String expected = BinUtil.leftPad(Long.toHexString(nextAddr).toUpperCase(), "0", 8, false);
+      throw new IllegalSourceException("Address is not contiguous at line " + lineNo + ": expected " + expected);
+    }
+
+    int cellsStart = i + 2;
+    int cellsEnd = cellsStart + cellsLength;
+    if (cellsEnd > end) {
+      cellsEnd = end;
+    }
+    int count = parseCells(cellsStart, cellsEnd);
+    write(row, count);
+    rowLen = count;
+    nextAddr = addr + count;
+  }
+
+  /**
+   * Writes the row above repeatedly up to the address.
+   */
+  private void repeatRow(long addr) throws IOException {
+    long len = addr - nextAddr;
+    if ((len < 0) || (len % ROW_SIZE != 0)) {
+      if (lenient) {
+        return;
+      }
+      throw new IllegalSourceException("Address is not contiguous at line " + lineNo);
+    }
+    for (long n = len / ROW_SIZE; n > 0; n--) {
+      write(row, ROW_SIZE);
+    }
+    nextAddr = addr;
+  }
+
+  private void write(byte[] b, int len) throws IOException {
+    if (pos + len > buf.length) {
+      out.write(buf, 0, pos);
+      pos = 0;
+    }
+    System.arraycopy(b, 0, buf, pos, len);
+    pos += len;
+  }
+
+  private int parseCells(int start, int end) throws IOException {
+    byte[] table = BinUtil.DIGIT_TABLE;
+    int count = 0;
+    int value = 0;
+    int digits = 0;
+    for (int i = start; i < end; i++) {
+      int ch = line[i] & 0xFF;
+      int d = table[ch];
+      if (d == BinUtil.DIGIT_WS) {
+        if ((digits > 0) && !lenient) {
+          throw new IllegalSourceException("Incomplete byte at line " + lineNo + ", column " + (i + 1));
+        }
+        continue;
+      }
+      if ((d < 0) || (d >= radix)) {
+        if (lenient) {
+          continue;
+        }
+        throw new IllegalSourceException(BinUtil.getIllegalCharacterMessage(radix, ch, "line " + lineNo + ", column " + (i + 1)));
+      }
+      value = value * radix + d;
+      if (++digits == unitSize) {
+        if (count == ROW_SIZE) {
+          throw new IllegalSourceException("Too many bytes at line " + lineNo);
+        }
+        row[count++] = (byte) value;
+        value = 0;
+        digits = 0;
+      }
+    }
+    if ((digits > 0) && !lenient) {
+      throw new IllegalSourceException("Incomplete byte at line " + lineNo + ", column " + (end + 1));
+    }
+    return count;
+  }
+
+  private static boolean startsWith(byte[] b, int start, int end, byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (b[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
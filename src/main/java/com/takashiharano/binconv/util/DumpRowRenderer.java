@@ -0,0 +1,381 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Renders the rows of the address dump.<br>
+ * The row template with the fixed separators is prepared once, and for each
+ * row only the address digits, the byte cells and the ASCII column are patched
+ * in place. The template is rebuilt only when the address grows beyond 8
+ * digits.<br>
+ * In place of the ASCII column, the text column decoded in a multibyte charset
+ * can be rendered by DumpTextColumn. Its length varies by row.<br>
+ * Without the text column, the length of a row depends only on its address,
+ * so the position of any row in the output can be computed up front, and the
+ * blocks of rows can be rendered in parallel.
+ *
+ * <pre>
+ * 00000000 : 00 01 02 03 04 05 06 07  08 09 0A 0B 0C 0D 0E 0F  ................
+ * </pre>
+ */
+public class DumpRowRenderer {
+
+  private static final int ROW_SIZE = 16;
+  private static final int MIN_ADDR_DIGITS = 8;
+  private static final int PARALLEL_BLOCK_ROWS = 4096;
+
+  private final boolean bin;
+  private final boolean address;
+  private final boolean ascii;
+  private final DumpTextColumn text;
+  private long nextAddr;
+  private final int cellSize;
+  private final int cellsLength;
+  private int addrDigits;
+  private int cellsStart;
+  private int asciiStart;
+  private byte[] row;
+
+  /**
+   * Creates a renderer.
+   *
+   * @param bin
+   *          true for the binary layout, false for the hex layout
+   * @param address
+   *          true to render the address column
+   * @param ascii
+   *          true to render the ASCII column
+   */
+  public DumpRowRenderer(boolean bin, boolean address, boolean ascii) {
+    this(bin, address, ascii, null);
+  }
+
+  /**
+   * Creates a renderer with the text column.<br>
+   * The bytes are decoded in charset across the rows, so the rows must be
+   * rendered in order. The decoder is reset when a row does not follow the
+   * previous one, such as after the omitted or the squeezed rows.
+   *
+   * @param bin
+   *          true for the binary layout, false for the hex layout
+   * @param address
+   *          true to render the address column
+   * @param charset
+   *          the charset to decode the text column
+   * @param outCharset
+   *          the charset to write the text column. Must be ASCII compatible.
+   * @throws IllegalArgumentException
+   *           If outCharset is not ASCII compatible
+   */
+  public DumpRowRenderer(boolean bin, boolean address, Charset charset, Charset outCharset) {
+    this(bin, address, false, new DumpTextColumn(charset, outCharset));
+  }
+
+  private DumpRowRenderer(boolean bin, boolean address, boolean ascii, DumpTextColumn text) {
+    this.bin = bin;
+    this.address = address;
+    this.ascii = ascii;
+    this.text = text;
+    this.cellSize = (bin ? 8 : 2);
+    // cells and separators, and the extra space after the 8th cell
+    this.cellsLength = (cellSize + 1) * ROW_SIZE;
+    buildTemplate(MIN_ADDR_DIGITS);
+  }
+
+  private static int getAddressDigits(long addr) {
+    int digits = (64 - Long.numberOfLeadingZeros(addr) + 3) / 4;
+    if (digits < MIN_ADDR_DIGITS) {
+      digits = MIN_ADDR_DIGITS;
+    }
+    return digits;
+  }
+
+  private void buildTemplate(int digits) {
+    addrDigits = digits;
+    cellsStart = (address ? digits + 3 : 0);
+    asciiStart = cellsStart + cellsLength + 2;
+    int len = cellsStart + cellsLength + (ascii ? 2 + ROW_SIZE : 0) + 1;
+    if (text != null) {
+      len = asciiStart + text.getCapacity() + 1;
+    }
+    row = new byte[len];
+    Arrays.fill(row, (byte) ' ');
+    if (address) {
+      row[digits + 1] = ':';
+    }
+    row[len - 1] = '\n';
+  }
+
+  /**
+   * Renders a row of 16 bytes.
+   *
+   * @param buf
+   *          the buffer
+   * @param start
+   *          the index of the first byte of the row
+   * @param end
+   *          the end index of the valid bytes in the buffer (exclusive). The
+   *          cells beyond this are filled with spaces.
+   * @param addr
+   *          the address to render
+   * @return the length of the row in array()
+   */
+  public int render(byte[] buf, int start, int end, long addr) {
+    if (address) {
+      int digits = getAddressDigits(addr);
+      if (digits != addrDigits) {
+        buildTemplate(digits);
+      }
+      byte[] hex = BinUtil.HEX_BYTES;
+      long a = addr;
+      for (int i = digits - 1; i >= 0; i--) {
+        row[i] = hex[(int) ((a & 0xF) << 1) + 1];
+        a >>>= 4;
+      }
+    }
+
+    int n = end - start;
+    if (n > ROW_SIZE) {
+      n = ROW_SIZE;
+    } else if (n < 0) {
+      n = 0;
+    }
+    byte[] table = (bin ? BinUtil.BIN_BYTES : BinUtil.HEX_BYTES);
+    int shift = (bin ? 3 : 1);
+    int p = cellsStart;
+    for (int i = 0; i < ROW_SIZE; i++) {
+      if (i == 8) {
+        p++;
+      }
+      if (i < n) {
+        System.arraycopy(table, (buf[start + i] & 0xFF) << shift, row, p, cellSize);
+      } else {
+        Arrays.fill(row, p, p + cellSize, (byte) ' ');
+      }
+      p += cellSize + 1;
+    }
+
+    if (text != null) {
+      if (addr != nextAddr) {
+        text.reset();
+      }
+      nextAddr = addr + ROW_SIZE;
+      p = text.render(buf, start, n, row, asciiStart);
+      row[p++] = '\n';
+      return p;
+    }
+
+    if (ascii) {
+      p = asciiStart;
+      for (int i = 0; i < ROW_SIZE; i++) {
+        byte b;
+        if (i >= n) {
+          b = ' ';
+        } else {
+          b = buf[start + i];
+          if ((b < 0x20) || (b > 0x7E)) {
+            b = '.';
+          }
+        }
+        row[p++] = b;
+      }
+    }
+    return row.length;
+  }
+
+  /**
+   * Returns the length of the row at the address.
+   *
+   * @param addr
+   *          the address of the row
+   * @return the number of bytes including the line break
+   * @throws IllegalStateException
+   *           If the renderer has the text column, whose length varies by row
+   */
+  public int getRowLength(long addr) {
+    checkFixedLength();
+    int len = cellsLength + (ascii ? 2 + ROW_SIZE : 0) + 1;
+    if (address) {
+      len += getAddressDigits(addr) + 3;
+    }
+    return len;
+  }
+
+  /**
+   * Returns the length of the consecutive rows.
+   *
+   * @param addr
+   *          the address of the first row
+   * @param rows
+   *          the number of rows
+   * @return the number of bytes
+   * @throws IllegalStateException
+   *           If the renderer has the text column, whose length varies by row
+   */
+  public long getLength(long addr, long rows) {
+    checkFixedLength();
+    long len = 0;
+    while (rows > 0) {
+      // the rows up to the address that needs one more digit
+      int digits = getAddressDigits(addr);
+      long n = rows;
+      if (address && (digits < 16)) {
+        long limit = 1L << (digits * 4);
+        n = Math.min(rows, (limit - addr + ROW_SIZE - 1) / ROW_SIZE);
+      }
+      len += n * getRowLength(addr);
+      addr += n * ROW_SIZE;
+      rows -= n;
+    }
+    return len;
+  }
+
+  /**
+   * Starts rendering the consecutive rows on the worker threads, and returns
+   * without waiting for them. The state of this renderer is not touched by the
+   * workers.
+   *
+   * @param buf
+   *          the buffer
+   * @param start
+   *          the index of the first byte of the first row
+   * @param end
+   *          the end index of the valid bytes in the buffer (exclusive)
+   * @param addr
+   *          the address of the first row
+   * @param rows
+   *          the number of rows
+   * @param dst
+   *          the destination. Must have the room of getLength() bytes
+   * @param dstPos
+   *          the start position in the destination
+   * @param executor
+   *          the executor to run the blocks
+   * @return the job to join
+   * @throws IllegalStateException
+   *           If the renderer has the text column, whose length varies by row
+   */
+  public ChunkExecutor.Job submit(byte[] buf, int start, int end, long addr, int rows, byte[] dst, int dstPos, ChunkExecutor executor) {
+    checkFixedLength();
+    int blocks = (rows + PARALLEL_BLOCK_ROWS - 1) / PARALLEL_BLOCK_ROWS;
+    return executor.submit(blocks, (i) -> {
+      int skip = i * PARALLEL_BLOCK_ROWS;
+      int n = Math.min(PARALLEL_BLOCK_ROWS, rows - skip);
+      int p = dstPos + (int) getLength(addr, skip);
+      // the renderer has the row buffer, so each block needs its own
+      new DumpRowRenderer(bin, address, ascii).renderRows(buf, start + skip * ROW_SIZE, end, addr + skip * ROW_SIZE, n, dst, p);
+    });
+  }
+
+  private int renderRows(byte[] buf, int start, int end, long addr, int rows, byte[] dst, int dstPos) {
+    int p = dstPos;
+    for (int i = 0; i < rows; i++) {
+      int len = render(buf, start, end, addr);
+      System.arraycopy(row, 0, dst, p, len);
+      p += len;
+      start += ROW_SIZE;
+      addr += ROW_SIZE;
+    }
+    return p;
+  }
+
+  private void checkFixedLength() {
+    if (text != null) {
+      throw new IllegalStateException("The length of the text column varies by row");
+    }
+  }
+
+  /**
+   * Returns the row rendered last. The row is stored in [0, length).
+   *
+   * @return the internal array
+   */
+  public byte[] array() {
+    return row;
+  }
+
+  /**
+   * Marks the end of the bytes. In the text column of the next row rendered,
+   * which must be the last one, a character cut off at the end is shown as
+   * ".". Does nothing without the text column.
+   */
+  public void finish() {
+    if (text != null) {
+      text.finish();
+    }
+  }
+
+  /**
+   * Renders a row and writes it to the output stream.
+   *
+   * @param out
+   *          the output stream
+   * @param buf
+   *          the buffer
+   * @param start
+   *          the index of the first byte of the row
+   * @param end
+   *          the end index of the valid bytes in the buffer (exclusive)
+   * @param addr
+   *          the address to render
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public void write(OutputStream out, byte[] buf, int start, int end, long addr) throws IOException {
+    int len = render(buf, start, end, addr);
+    out.write(row, 0, len);
+  }
+
+  /**
+   * Renders a row and appends it to the sink.
+   *
+   * @param out
+   *          the sink
+   * @param buf
+   *          the buffer
+   * @param start
+   *          the index of the first byte of the row
+   * @param end
+   *          the end index of the valid bytes in the buffer (exclusive)
+   * @param addr
+   *          the address to render
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public void append(Appendable out, byte[] buf, int start, int end, long addr) throws IOException {
+    int len = render(buf, start, end, addr);
+    if (out instanceof AsciiBuffer) {
+      ((AsciiBuffer) out).append(row, 0, len);
+    } else {
+      out.append(new String(row, 0, len, StandardCharsets.ISO_8859_1));
+    }
+  }
+
+}
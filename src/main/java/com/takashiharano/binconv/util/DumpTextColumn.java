@@ -0,0 +1,374 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Renders the text column of the address dump in a multibyte charset.<br>
+ * The bytes of the rows are fed to one CharsetDecoder in order, so that a
+ * character split across the rows is decoded. Each character is put at the
+ * column of its first byte in the row where the character is completed, and
+ * the rest of the columns of its bytes are padded with spaces, counting a
+ * full-width character as 2 columns. The control characters, the combining
+ * characters, the malformed bytes and the characters that cannot be encoded in
+ * the output charset are shown as ".".
+ *
+ * <pre>
+ * 00000000 : E3 81 82 E3 81 84 E3 81  86 41 42 43 0A E3 81 88  あ い う ABC.え
+ * 00000010 : E3 81 8A E3 81 8B E3 81  8D E3 81 8F E3 81 91 E3  お か き く け
+ * 00000020 : 81 93                                             こ
+ * </pre>
+ */
+final class DumpTextColumn {
+
+  private static final int ROW_SIZE = 16;
+  private static final int MAX_PENDING_BYTES = 16;
+
+  private final CharsetDecoder decoder;
+  private final CharsetEncoder encoder;
+  // bytes < 0x80 are decoded into the ASCII characters by themselves
+  private final boolean asciiTransparent;
+  private final int capacity;
+
+  // the bytes fed to the decoder but not decoded yet, and their column in the
+  // row. -1 for the bytes of the previous rows.
+  private final byte[] pending = new byte[MAX_PENDING_BYTES];
+  private final int[] pendingColumns = new int[MAX_PENDING_BYTES];
+  private int pendingLen;
+  private final ByteBuffer in = ByteBuffer.wrap(pending);
+  private final CharBuffer chars = CharBuffer.allocate(4);
+
+  private byte[] dst;
+  private ByteBuffer dstBuf;
+  private int column;
+  private boolean endOfInput;
+
+  /**
+   * Creates a text column.
+   *
+   * @param charset
+   *          the charset to decode the bytes
+   * @param outCharset
+   *          the charset to write the text. Must represent the ASCII
+   *          characters in the same bytes as ASCII, since the rest of the row
+   *          is written in ASCII.
+   * @throws IllegalArgumentException
+   *           If the output charset is not ASCII compatible
+   */
+  DumpTextColumn(Charset charset, Charset outCharset) {
+    if (!isAsciiCompatible(outCharset)) {
+      throw new IllegalArgumentException("The text column cannot be written in " + outCharset.name());
+    }
+    decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+    encoder = outCharset.newEncoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+    asciiTransparent = isAsciiTransparent(charset);
+    // a character or a surrogate pair for each byte, and the padding
+    int maxBytesPerChar = (int) Math.ceil(encoder.maxBytesPerChar());
+    capacity = ROW_SIZE * (maxBytesPerChar * 2 + 1);
+  }
+
+  /**
+   * Returns whether the ASCII characters are encoded into the ASCII bytes.
+   */
+  private static boolean isAsciiCompatible(Charset charset) {
+    byte[] ascii = getAsciiBytes();
+    String s = new String(ascii, StandardCharsets.US_ASCII);
+    return Arrays.equals(s.getBytes(charset), ascii);
+  }
+
+  /**
+   * Returns whether every byte below 0x80 is decoded into the ASCII character
+   * by itself at the start of a character. The stateful charsets such as
+   * ISO-2022-JP fail on ESC.
+   */
+  private static boolean isAsciiTransparent(Charset charset) {
+    CharsetDecoder decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+    byte[] ascii = getAsciiBytes();
+    for (int i = 0; i < ascii.length; i++) {
+      try {
+        CharBuffer cb = decoder.reset().decode(ByteBuffer.wrap(ascii, i, 1));
+        if ((cb.remaining() != 1) || (cb.get() != i)) {
+          return false;
+        }
+      } catch (Exception e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] getAsciiBytes() {
+    byte[] ascii = new byte[0x80];
+    for (int i = 0; i < ascii.length; i++) {
+      ascii[i] = (byte) i;
+    }
+    return ascii;
+  }
+
+  /**
+   * Returns the maximum length of the column.
+   *
+   * @return the length in bytes
+   */
+  int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Discards the state of the decoder. Called when the next row does not
+   * follow the previous row.
+   */
+  void reset() {
+    decoder.reset();
+    pendingLen = 0;
+  }
+
+  /**
+   * Marks the end of the bytes. The next row rendered is the last one, and the
+   * bytes of a character cut off at its end are shown as ".".
+   */
+  void finish() {
+    endOfInput = true;
+  }
+
+  /**
+   * Renders the text of a row.
+   *
+   * @param buf
+   *          the buffer
+   * @param start
+   *          the index of the first byte of the row
+   * @param n
+   *          the number of bytes in the row
+   * @param dst
+   *          the destination
+   * @param pos
+   *          the position in the destination to write the column. The
+   *          destination must have the room of getCapacity() bytes from here.
+   * @return the position next to the last byte written
+   */
+  int render(byte[] buf, int start, int n, byte[] dst, int pos) {
+    if (dst != this.dst) {
+      this.dst = dst;
+      dstBuf = ByteBuffer.wrap(dst);
+    }
+    dstBuf.position(pos);
+    column = 0;
+    for (int i = 0; i < pendingLen; i++) {
+      pendingColumns[i] = -1;
+    }
+    for (int i = 0; i < n; i++) {
+      byte b = buf[start + i];
+      if ((b >= 0) && (pendingLen == 0) && asciiTransparent) {
+        if ((b < 0x20) || (b == 0x7F)) {
+          b = '.';
+        }
+        pad(i);
+        dstBuf.put(b);
+        column++;
+        continue;
+      }
+      if (pendingLen == MAX_PENDING_BYTES) {
+        // never happens with the known charsets
+        reset();
+      }
+      pending[pendingLen] = b;
+      pendingColumns[pendingLen] = i;
+      pendingLen++;
+      decodePending(false);
+    }
+    if (endOfInput) {
+      endOfInput = false;
+      flushPending();
+    }
+    pad(ROW_SIZE);
+    return dstBuf.position();
+  }
+
+  /**
+   * Decodes the pending bytes as far as possible.
+   *
+   * @param endOfInput
+   *          true if no more bytes follow, to decode the incomplete character
+   *          at the end as malformed
+   */
+  private void decodePending(boolean endOfInput) {
+    while (true) {
+      in.limit(pendingLen).position(0);
+      chars.clear();
+      CoderResult cr = decoder.decode(in, chars, endOfInput);
+      int consumed = in.position();
+      chars.flip();
+      if (chars.hasRemaining()) {
+        putChars(pendingColumns[0]);
+      }
+      if (cr.isError()) {
+        int len = cr.length();
+        for (int i = consumed; i < consumed + len; i++) {
+          putDot(pendingColumns[i]);
+        }
+        consumed += len;
+      }
+      if (consumed > 0) {
+        pendingLen -= consumed;
+        System.arraycopy(pending, consumed, pending, 0, pendingLen);
+        System.arraycopy(pendingColumns, consumed, pendingColumns, 0, pendingLen);
+      }
+      if (!cr.isError() || (pendingLen == 0)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Decodes the rest of the bytes at the end of the input, and shows the bytes
+   * left in the decoder as ".".
+   */
+  private void flushPending() {
+    decodePending(true);
+    chars.clear();
+    decoder.flush(chars);
+    chars.flip();
+    if (chars.hasRemaining()) {
+      putChars(column);
+    }
+    for (int i = 0; i < pendingLen; i++) {
+      putDot(pendingColumns[i]);
+    }
+    reset();
+  }
+
+  private void putDot(int col) {
+    if (col < 0) {
+      // the byte has been shown as a space in the previous row
+      return;
+    }
+    pad(col);
+    dstBuf.put((byte) '.');
+    column++;
+  }
+
+  /**
+   * Writes the decoded characters at the column.
+   */
+  private void putChars(int col) {
+    pad(col < 0 ? 0 : col);
+    while (chars.hasRemaining()) {
+      int cp;
+      int len = 1;
+      char c = chars.get(chars.position());
+      if (Character.isHighSurrogate(c) && (chars.remaining() >= 2) && Character.isLowSurrogate(chars.get(chars.position() + 1))) {
+        cp = Character.toCodePoint(c, chars.get(chars.position() + 1));
+        len = 2;
+      } else {
+        cp = c;
+      }
+      int next = chars.position() + len;
+      int limit = chars.limit();
+      chars.limit(next);
+      if (isPrintable(cp) && encode()) {
+        column += (isWide(cp) ? 2 : 1);
+      } else {
+        dstBuf.put((byte) '.');
+        column++;
+      }
+      chars.limit(limit);
+      chars.position(next);
+    }
+  }
+
+  /**
+   * Encodes the character in [position, limit) of chars into the row.
+   */
+  private boolean encode() {
+    int pos = dstBuf.position();
+    encoder.reset();
+    CoderResult cr = encoder.encode(chars, dstBuf, true);
+    if (!cr.isError()) {
+      cr = encoder.flush(dstBuf);
+    }
+    if (cr.isError()) {
+      dstBuf.position(pos);
+      return false;
+    }
+    return true;
+  }
+
+  private void pad(int col) {
+    while (column < col) {
+      dstBuf.put((byte) ' ');
+      column++;
+    }
+  }
+
+  private static boolean isPrintable(int cp) {
+    if (cp < 0x80) {
+      return (cp >= 0x20) && (cp != 0x7F);
+    }
+    switch (Character.getType(cp)) {
+      case Character.CONTROL:
+      case Character.FORMAT:
+      case Character.NON_SPACING_MARK:
+      case Character.ENCLOSING_MARK:
+      case Character.SURROGATE:
+      case Character.PRIVATE_USE:
+      case Character.UNASSIGNED:
+      case Character.LINE_SEPARATOR:
+      case Character.PARAGRAPH_SEPARATOR:
+        return false;
+      default:
+        return cp != 0xFFFD;
+    }
+  }
+
+  /**
+   * Returns whether the character takes 2 columns on the terminal. The East
+   * Asian Wide and Fullwidth blocks are approximated.
+   */
+  private static boolean isWide(int cp) {
+    if (cp < 0x1100) {
+      return false;
+    }
+    return (cp <= 0x115F) // Hangul Jamo
+        || ((cp >= 0x2E80) && (cp <= 0xA4CF) && (cp != 0x303F)) // CJK ... Yi
+        || ((cp >= 0xAC00) && (cp <= 0xD7A3)) // Hangul Syllables
+        || ((cp >= 0xF900) && (cp <= 0xFAFF)) // CJK Compatibility Ideographs
+        || ((cp >= 0xFE30) && (cp <= 0xFE4F)) // CJK Compatibility Forms
+        || ((cp >= 0xFF00) && (cp <= 0xFF60)) // Fullwidth Forms
+        || ((cp >= 0xFFE0) && (cp <= 0xFFE6))
+        || ((cp >= 0x1F300) && (cp <= 0x1F64F)) // Pictographs, Emoticons
+        || ((cp >= 0x1F900) && (cp <= 0x1F9FF))
+        || ((cp >= 0x20000) && (cp <= 0x3FFFD)); // CJK Extension B...
+  }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the address dump of the bytes row by row.<br>
+ * The layout is the same as BinUtil.dumpHex() / BinUtil.dumpBin(), but the
+ * rows are emitted to the output stream as the bytes arrive, so the memory
+ * usage does not depend on the size of the source.<br>
+ * In the squeeze mode, the rows that are the same as the row above are
+ * replaced with a line of "*" and are not rendered at all. The last row is
+ * always output, so that DumpParser can restore the omitted rows from the
+ * addresses.<br>
+ * Without the squeeze mode and the text column, every row has the fixed
+ * length, so the rows can be rendered on the worker threads by
+ * dump(InputStream, ChunkExecutor).
+ */
+public class DumpWriter {
+
+  private static final int ROW_SIZE = 16;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final int CHUNKS_PER_THREAD = 2;
+
+  private final OutputStream out;
+  private final boolean bin;
+  private final boolean address;
+  private final String label;
+  private final boolean squeeze;
+  private final boolean text;
+  private boolean header;
+
+  private final byte[] row = new byte[ROW_SIZE];
+  private int rowLen;
+  private long addr;
+  private final byte[] prevRow = new byte[ROW_SIZE];
+  private boolean hasPrevRow;
+  private long repeated;
+
+  private final DumpRowRenderer renderer;
+
+  /**
+   * Creates a writer.
+   *
+   * @param out
+   *          the output stream to write the dump
+   * @param bin
+   *          true for the binary layout, false for the hex layout
+   * @param header
+   *          true to output the header
+   * @param address
+   *          true to output the address column
+   * @param ascii
+   *          true to output the ASCII column
+   */
+  public DumpWriter(OutputStream out, boolean bin, boolean header, boolean address, boolean ascii) {
+    this(out, bin, header, address, ascii, false);
+  }
+
+  /**
+   * Creates a writer.
+   *
+   * @param out
+   *          the output stream to write the dump
+   * @param bin
+   *          true for the binary layout, false for the hex layout
+   * @param header
+   *          true to output the header
+   * @param address
+   *          true to output the address column
+   * @param ascii
+   *          true to output the ASCII column
+   * @param squeeze
+   *          true to collapse the repeated rows into "*". Ignored without the
+   *          address column.
+   */
+  public DumpWriter(OutputStream out, boolean bin, boolean header, boolean address, boolean ascii, boolean squeeze) {
+    this.out = out;
+    this.bin = bin;
+    this.header = header;
+    this.address = address;
+    this.label = (ascii ? "ASCII" : null);
+    this.squeeze = squeeze && address;
+    this.text = false;
+    this.renderer = new DumpRowRenderer(bin, address, ascii);
+  }
+
+  /**
+   * Creates a writer with the text column decoded in the charset in place of
+   * the ASCII column. The characters split across the rows are decoded.
+   *
+   * @param out
+   *          the output stream to write the dump
+   * @param bin
+   *          true for the binary layout, false for the hex layout
+   * @param header
+   *          true to output the header
+   * @param address
+   *          true to output the address column
+   * @param squeeze
+   *          true to collapse the repeated rows into "*". Ignored without the
+   *          address column.
+   * @param charset
+   *          the charset to decode the text column
+   * @param outCharset
+   *          the charset to write the text column. Must be ASCII compatible.
+   * @throws IllegalArgumentException
+   *           If outCharset is not ASCII compatible
+   */
+  public DumpWriter(OutputStream out, boolean bin, boolean header, boolean address, boolean squeeze, Charset charset, Charset outCharset) {
+    this.out = out;
+    this.bin = bin;
+    this.header = header;
+    this.address = address;
+    this.label = charset.name();
+    this.squeeze = squeeze && address;
+    this.text = true;
+    this.renderer = new DumpRowRenderer(bin, address, charset, outCharset);
+  }
+
+  /**
+   * Dumps the whole stream and finishes the dump.
+   *
+   * @param in
+   *          the source stream
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public void dump(InputStream in) throws IOException {
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer bb = pool.get(READ_BUFFER_SIZE);
+    try {
+      byte[] buf = bb.array();
+      int n;
+      while ((n = in.read(buf, 0, READ_BUFFER_SIZE)) >= 0) {
+        write(buf, 0, n);
+      }
+    } finally {
+      pool.release(bb);
+    }
+    finish();
+  }
+
+  /**
+   * Dumps the whole stream and finishes the dump, rendering the rows on the
+   * worker threads.<br>
+   * The stream is read segment by segment, and the rows of each segment are
+   * rendered in blocks into their own regions of the output buffer. The next
+   * segment is read while the rows are rendered. In the squeeze mode or with
+   * the text column, a row depends on the rows above, so the rows are
+   * rendered in order by dump(InputStream).
+   *
+   * @param in
+   *          the source stream
+   * @param executor
+   *          the executor to render the rows
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public void dump(InputStream in, ChunkExecutor executor) throws IOException {
+    if (squeeze || text || (addr > 0) || (rowLen > 0)) {
+      dump(in);
+      return;
+    }
+    writeHeader();
+    int segmentSize = READ_BUFFER_SIZE * executor.getThreads() * CHUNKS_PER_THREAD;
+    int segmentRows = segmentSize / ROW_SIZE;
+    int outSize = segmentRows * renderer.getRowLength(Long.MAX_VALUE);
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer[] srcBufs = { pool.get(segmentSize), pool.get(segmentSize) };
+    ByteBuffer[] dstBufs = { pool.get(outSize), pool.get(outSize) };
+    try {
+      int cur = 0;
+      int len = FileUtil.readFully(in, srcBufs[cur].array(), 0, segmentSize);
+      while (len > 0) {
+        byte[] src = srcBufs[cur].array();
+        byte[] dst = dstBufs[cur].array();
+        int srcLen = len;
+        int rows = (srcLen + ROW_SIZE - 1) / ROW_SIZE;
+        long segmentAddr = addr;
+        ChunkExecutor.Job job = renderer.submit(src, 0, srcLen, segmentAddr, rows, dst, 0, executor);
+        int next = 1 - cur;
+        len = 0;
+        if (srcLen == segmentSize) {
+          len = FileUtil.readFully(in, srcBufs[next].array(), 0, segmentSize);
+        }
+        job.join();
+        out.write(dst, 0, (int) renderer.getLength(segmentAddr, rows));
+        addr += srcLen;
+        cur = next;
+      }
+    } finally {
+      for (int i = 0; i < 2; i++) {
+        pool.release(srcBufs[i]);
+        pool.release(dstBufs[i]);
+      }
+    }
+    finish();
+  }
+
+  /**
+   * Dumps the bytes.<br>
+   * The bytes that do not fill a row are held until the next call. With the
+   * text column, the last full row is also held, since a character cut off at
+   * the end of the bytes is shown in it by finish().
+   *
+   * @param b
+   *          the bytes
+   * @param off
+   *          the start offset
+   * @param len
+   *          the number of bytes
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public void write(byte[] b, int off, int len) throws IOException {
+    writeHeader();
+    while (len > 0) {
+      if (rowLen == ROW_SIZE) {
+        // the held row is not the last one
+        writeRow(row, 0, ROW_SIZE);
+        rowLen = 0;
+      }
+      if ((rowLen == 0) && ((len > ROW_SIZE) || ((len == ROW_SIZE) && !text))) {
+        writeRow(b, off, off + ROW_SIZE);
+        off += ROW_SIZE;
+        len -= ROW_SIZE;
+        continue;
+      }
+      int n = ROW_SIZE - rowLen;
+      if (n > len) {
+        n = len;
+      }
+      System.arraycopy(b, off, row, rowLen, n);
+      rowLen += n;
+      off += n;
+      len -= n;
+      if ((rowLen == ROW_SIZE) && !text) {
+        writeRow(row, 0, ROW_SIZE);
+        rowLen = 0;
+      }
+    }
+  }
+
+  /**
+   * Outputs the row held, or the last row of the repeated rows.
+   *
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public void finish() throws IOException {
+    writeHeader();
+    renderer.finish();
+    if (rowLen > 0) {
+      writeRow(row, 0, rowLen);
+      rowLen = 0;
+    }
+    if (repeated > 0) {
+      if (repeated > 1) {
+        writeSqueezeMark();
+      }
+      repeated = 0;
+      renderer.write(out, prevRow, 0, ROW_SIZE, addr - ROW_SIZE);
+    }
+  }
+
+  private void writeHeader() throws IOException {
+    if (header) {
+      header = false;
+      AsciiBuffer line = new AsciiBuffer();
+      BinUtil.dumpHeader(line, bin, address, label);
+      line.writeTo(out);
+    }
+  }
+
+  private void writeRow(byte[] b, int start, int end) throws IOException {
+    boolean fullRow = (end - start == ROW_SIZE);
+    if (squeeze && fullRow && hasPrevRow && CodecKernel.isSameRow(b, start, prevRow, 0)) {
+      repeated++;
+      addr += ROW_SIZE;
+      return;
+    }
+    if (repeated > 0) {
+      writeSqueezeMark();
+      repeated = 0;
+    }
+    renderer.write(out, b, start, end, addr);
+    if (squeeze && fullRow) {
+      System.arraycopy(b, start, prevRow, 0, ROW_SIZE);
+      hasPrevRow = true;
+    }
+    addr += ROW_SIZE;
+  }
+
+  private void writeSqueezeMark() throws IOException {
+    out.write('*');
+    out.write('\n');
+  }
+
+}
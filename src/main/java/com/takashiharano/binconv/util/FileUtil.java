@@ -25,14 +25,26 @@
  */
 package com.takashiharano.binconv.util;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
 public class FileUtil {
@@ -40,6 +52,22 @@ public class FileUtil {
   public static final String DEFAULT_CHARSET = "UTF-8";
   public static String LINE_SEPARATOR = "\n";
 
+  /**
+   * The size of the memory-mapped windows.
+   */
+  public static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * Regular files smaller than this size are read as a plain stream instead of
+   * being mapped.
+   */
+  public static final long MAP_THRESHOLD = 1024 * 1024;
+
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+
   /**
    * Check if the given bytes corresponding to the given charset.
    *
@@ -66,24 +94,21 @@ public class FileUtil {
    * @return charset name
    */
   public static String getCharsetName(byte[] src) {
-    if (src.length >= 3) {
-      if ((src[0] == (byte) 0xFE) && (src[1] == (byte) 0xFF)) {
-        // big-endian
-        return "UTF-16BE";
-      } else if ((src[0] == (byte) 0xFF) && (src[1] == (byte) 0xFE)) {
-        // little-endian
-        return "UTF-16LE";
-      }
-    }
+    return getCharsetName(src, 0);
+  }
 
-    String[] CHARSET_NAMES = { "UTF-16", "UTF-8", "EUC_JP", "SJIS" };
-    for (int i = 0; i < CHARSET_NAMES.length; i++) {
-      String charsetName = CHARSET_NAMES[i];
-      if (checkCharset(src, charsetName)) {
-        return charsetName;
-      }
-    }
-    return null;
+  /**
+   * Detects charset and returns its name.
+   *
+   * @param src
+   *          string byte array
+   * @param sampleSize
+   *          the maximum number of bytes to examine from the beginning. 0 to
+   *          examine all
+   * @return charset name
+   */
+  public static String getCharsetName(byte[] src, int sampleSize) {
+    return CharsetDetector.detect(src, sampleSize);
   }
 
   /**
@@ -163,19 +188,26 @@ public class FileUtil {
   }
 
   /**
-   * Creates the parent directories.
+   * Creates the parent directories.<br>
+   * Safe to call from several threads for the files in the same directory:
+   * the directories that another thread creates at the same time are not
+   * regarded as a failure, unlike File.mkdirs().
    *
    * @param file
    *          the target file
-   * @return true if and only if the directory was created
+   * @return true if the directory did not exist and has been created
    */
   public static boolean mkParentDir(File file) {
-    boolean created = false;
     String parent = getParentPath(file);
-    if ((parent != null) && !exists(parent)) {
-      created = mkdir(parent);
+    if ((parent == null) || new File(parent).isDirectory()) {
+      return false;
     }
-    return created;
+    try {
+      Files.createDirectories(Paths.get(parent));
+    } catch (IOException e) {
+      return false;
+    }
+    return true;
   }
 
   /**
@@ -197,20 +229,109 @@ public class FileUtil {
    * @param file
    *          the file object
    * @return byte array of the file content. Returns null if the file does not
-   *         exist, or in case of a read error.
+   *         exist, is too large to fit in an array, or in case of a read error.
    */
   public static byte[] read(File file) {
     if (!file.exists()) {
       return null;
     }
-    byte[] content = new byte[(int) file.length()];
     try (FileInputStream fis = new FileInputStream(file)) {
-      @SuppressWarnings("unused")
-      int readSize = fis.read(content, 0, content.length);
+      long size = file.length();
+      if (!file.isFile() || (size == 0)) {
+        // pipes, devices and pseudo files do not report their size
+        return readAll(fis);
+      }
+      if (size > MAX_ARRAY_SIZE) {
+        return null;
+      }
+      byte[] content = new byte[(int) size];
+      int readSize = readFully(fis, content, 0, content.length);
+      if (readSize < content.length) {
+        content = Arrays.copyOf(content, readSize);
+      }
+      return content;
     } catch (IOException ioe) {
-      content = null;
+      return null;
+    }
+  }
+
+  /**
+   * Reads all bytes from the stream.
+   *
+   * @param in
+   *          the input stream
+   * @return the bytes read
+   * @throws IOException
+   *           If an I/O error occurs, or the content is too large to fit in an
+   *           array
+   */
+  public static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer bb = pool.get(READ_BUFFER_SIZE);
+    try {
+      byte[] buf = bb.array();
+      long total = 0;
+      int n;
+      while ((n = in.read(buf, 0, READ_BUFFER_SIZE)) >= 0) {
+        total += n;
+        if (total > MAX_ARRAY_SIZE) {
+          throw new IOException("Content too large");
+        }
+        baos.write(buf, 0, n);
+      }
+    } finally {
+      pool.release(bb);
     }
-    return content;
+    return baos.toByteArray();
+  }
+
+  /**
+   * Opens an input stream to read the file.<br>
+   * Regular files larger than MAP_THRESHOLD are read through memory-mapped
+   * windows, so any size of file can be read without copying its whole content
+   * onto the heap.
+   *
+   * @param file
+   *          the file object
+   * @return the input stream
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public static InputStream openInputStream(File file) throws IOException {
+    if (file.isFile() && (file.length() >= MAP_THRESHOLD)) {
+      return new MappedInputStream(file);
+    }
+    return new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE);
+  }
+
+  /**
+   * Reads bytes from the stream until the buffer is filled or the end of the
+   * stream is reached.
+   *
+   * @param in
+   *          the input stream
+   * @param buf
+   *          the buffer into which the data is read
+   * @param off
+   *          the start offset in the buffer
+   * @param len
+   *          the number of bytes to read
+   * @return the number of bytes read. Less than len only if the end of the
+   *         stream has been reached.
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public static int readFully(InputStream in, byte[] buf, int off, int len) throws IOException {
+    int total = 0;
+    while (total < len) {
+      int n = in.read(buf, off + total, len - total);
+      if (n < 0) {
+        break;
+      }
+      total += n;
+    }
+    return total;
   }
 
   /**
@@ -282,6 +403,21 @@ public class FileUtil {
     return text;
   }
 
+  /**
+   * Opens a buffered output stream to write into the file.<br>
+   * The parent directories are created if necessary.
+   *
+   * @param file
+   *          the file object
+   * @return the output stream
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public static OutputStream openOutputStream(File file) throws IOException {
+    mkParentDir(file);
+    return new BufferedOutputStream(new FileOutputStream(file));
+  }
+
   /**
    * Write a content using a byte array into a file.
    *
@@ -309,11 +445,23 @@ public class FileUtil {
    */
   public static void write(File file, byte[] content) throws IOException {
     mkParentDir(file);
-    try (FileOutputStream fos = new FileOutputStream(file); BufferedOutputStream bos = new BufferedOutputStream(fos)) {
-      bos.write(content, 0, content.length);
-      bos.flush();
-    } catch (IOException e) {
-      throw e;
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer buf = pool.getDirect(DIRECT_BUFFER_SIZE);
+    try (FileChannel channel = openChannel(file)) {
+      int off = 0;
+      while (off < content.length) {
+        int n = content.length - off;
+        if (n > DIRECT_BUFFER_SIZE) {
+          n = DIRECT_BUFFER_SIZE;
+        }
+        buf.clear();
+        buf.put(content, off, n);
+        buf.flip();
+        writeFully(channel, buf);
+        off += n;
+      }
+    } finally {
+      pool.release(buf);
     }
   }
 
@@ -376,11 +524,46 @@ public class FileUtil {
    *           If an I/O error occurs
    */
   public static void write(File file, String content, String charsetName) throws IOException {
+    CharsetEncoder encoder;
+    try {
+      encoder = Charset.forName(charsetName).newEncoder();
+    } catch (IllegalArgumentException e) {
+      throw new UnsupportedEncodingException(charsetName);
+    }
+    encoder.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
     mkParentDir(file);
-    try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), charsetName))) {
-      bw.write(content);
-    } catch (IOException e) {
-      throw e;
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer buf = pool.getDirect(DIRECT_BUFFER_SIZE);
+    try (FileChannel channel = openChannel(file)) {
+      CharBuffer src = CharBuffer.wrap(content);
+      CoderResult result;
+      do {
+        result = encoder.encode(src, buf, true);
+        buf.flip();
+        writeFully(channel, buf);
+        buf.clear();
+      } while (result.isOverflow());
+      do {
+        result = encoder.flush(buf);
+        buf.flip();
+        writeFully(channel, buf);
+        buf.clear();
+      } while (result.isOverflow());
+    } finally {
+      pool.release(buf);
+    }
+  }
+
+  /**
+   * Opens the file to write from the beginning.
+   */
+  private static FileChannel openChannel(File file) throws IOException {
+    return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      channel.write(buf);
     }
   }
 
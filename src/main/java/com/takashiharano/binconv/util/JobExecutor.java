@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the independent jobs concurrently, such as the files of the batch.<br>
+ * At most the given number of jobs run at a time. This is the implementation
+ * for Java 8, which runs the jobs on a fixed thread pool of that size. On Java
+ * 21 or later, the multi-release JAR replaces it with the implementation that
+ * runs each job on a virtual thread, so that the jobs waiting for I/O do not
+ * hold a platform thread.
+ *
+ * <pre>
+ * try (JobExecutor executor = new JobExecutor(n)) {
+ *   for (Job job : jobs) {
+ *     executor.submit(job);
+ *   }
+ * } // waits for all jobs
+ * </pre>
+ */
+public class JobExecutor implements AutoCloseable {
+
+  private final ExecutorService executor;
+
+  /**
+   * Creates an executor.
+   *
+   * @param concurrency
+   *          the maximum number of the jobs that run at a time
+   */
+  public JobExecutor(int concurrency) {
+    executor = Executors.newFixedThreadPool(concurrency);
+  }
+
+  /**
+   * Returns the name of the implementation.
+   *
+   * @return the name
+   */
+  public static String getName() {
+    return "thread pool";
+  }
+
+  /**
+   * Starts the job, or queues it until a running job ends.<br>
+   * The job must catch its own errors.
+   *
+   * @param job
+   *          the job
+   */
+  public void submit(Runnable job) {
+    executor.execute(job);
+  }
+
+  /**
+   * Waits for all jobs to end, and shuts down the threads.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
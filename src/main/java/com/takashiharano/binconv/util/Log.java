@@ -29,4 +29,8 @@ public class Log {
     System.out.println(x);
   }
 
+  public static void error(Object x) {
+    System.err.println(x);
+  }
+
 }
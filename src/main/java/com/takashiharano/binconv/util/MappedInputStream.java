@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An input stream that reads a file through memory-mapped windows.<br>
+ * Only one window is mapped at a time, so files larger than 2 GB can be read
+ * without loading the content onto the heap.
+ */
+public class MappedInputStream extends InputStream {
+
+  private final FileChannel channel;
+  private final long size;
+  private final int windowSize;
+  private long windowPos;
+  private MappedByteBuffer window;
+
+  /**
+   * Opens the file with the default window size.
+   *
+   * @param file
+   *          the file to read
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public MappedInputStream(File file) throws IOException {
+    this(file, FileUtil.MAP_WINDOW_SIZE);
+  }
+
+  /**
+   * Opens the file.
+   *
+   * @param file
+   *          the file to read
+   * @param windowSize
+   *          the size of each mapped window in bytes
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  public MappedInputStream(File file, int windowSize) throws IOException {
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    this.size = channel.size();
+    this.windowSize = windowSize;
+    this.windowPos = 0;
+  }
+
+  private boolean ensureWindow() throws IOException {
+    if ((window != null) && window.hasRemaining()) {
+      return true;
+    }
+    window = null;
+    if (windowPos >= size) {
+      return false;
+    }
+    long len = size - windowPos;
+    if (len > windowSize) {
+      len = windowSize;
+    }
+    window = channel.map(FileChannel.MapMode.READ_ONLY, windowPos, len);
+    windowPos += len;
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureWindow()) {
+      return -1;
+    }
+    return window.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureWindow()) {
+      return -1;
+    }
+    int n = window.remaining();
+    if (n > len) {
+      n = len;
+    }
+    window.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    long remaining = remaining();
+    if (n > remaining) {
+      n = remaining;
+    }
+    long bufRemaining = (window == null ? 0 : window.remaining());
+    if (n <= bufRemaining) {
+      window.position(window.position() + (int) n);
+    } else {
+      windowPos += n - bufRemaining;
+      window = null;
+    }
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    long remaining = remaining();
+    return (int) (remaining > Integer.MAX_VALUE ? Integer.MAX_VALUE : remaining);
+  }
+
+  private long remaining() {
+    long bufRemaining = (window == null ? 0 : window.remaining());
+    return (size - windowPos) + bufRemaining;
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    channel.close();
+  }
+
+}
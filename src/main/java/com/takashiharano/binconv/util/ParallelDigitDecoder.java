@@ -0,0 +1,263 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decodes the hex or binary text into bytes on the worker threads.<br>
+ * Since whitespace can appear anywhere, the position of the bytes decoded from
+ * a chunk of the text is not known until the digits before it are counted. So
+ * the text is decoded in 2 passes:
+ * <ol>
+ * <li>count(): the digits of each chunk are counted in parallel. The prefix
+ * sum of the counts gives the index of the first digit of each chunk.</li>
+ * <li>decode(): each chunk decodes the units that start in it into its own
+ * region of the output. The digits at the head of the chunk that belong to
+ * the unit started in the previous chunk are skipped, and the last unit is
+ * completed by reading past the end of the chunk.</li>
+ * </ol>
+ * The result is the same as BinUtil.toBytes(). The trailing digits that do
+ * not fill a unit are left for the caller. The first invalid character in the
+ * complete units is reported by getBadIndex(), so that the caller can throw
+ * the exception of its own.
+ */
+class ParallelDigitDecoder {
+
+  private static final int CHUNK_SIZE = 256 * 1024;
+  private static final int FAST_PATH_MIN_LENGTH = 48;
+
+  private final int radix;
+  private final int unitSize;
+  private final boolean lenient;
+  private final ChunkExecutor executor;
+
+  private byte[] bytes;
+  private int start;
+  private int end;
+  private int[] starts;
+  private int units;
+  private int tailStart;
+  private int badIndex;
+
+  /**
+   * Creates a decoder.
+   *
+   * @param radix
+   *          the radix of values. 2 to 36
+   * @param unitSize
+   *          the number of digits per byte
+   * @param lenient
+   *          true to skip the characters other than the digits and whitespace
+   * @param executor
+   *          the executor to run the chunks
+   */
+  ParallelDigitDecoder(int radix, int unitSize, boolean lenient, ChunkExecutor executor) {
+    this.radix = radix;
+    this.unitSize = unitSize;
+    this.lenient = lenient;
+    this.executor = executor;
+  }
+
+  /**
+   * Counts the digits of the text in ASCII.
+   *
+   * @param b
+   *          the text
+   * @param start
+   *          the start index
+   * @param end
+   *          the end index (exclusive)
+   * @return the number of the complete units
+   * @throws IOException
+   *           If a chunk fails
+   */
+  int count(byte[] b, int start, int end) throws IOException {
+    this.bytes = b;
+    this.start = start;
+    this.end = end;
+    int chunks = (end - start + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    int[] counts = new int[chunks];
+    executor.invoke(chunks, (c) -> {
+      int from = start + c * CHUNK_SIZE;
+      int to = Math.min(from + CHUNK_SIZE, end);
+      int n = 0;
+      for (int i = from; i < to; i++) {
+        if (digitAt(i) != BinUtil.DIGIT_WS) {
+          n++;
+        }
+      }
+      counts[c] = n;
+    });
+    starts = new int[chunks + 1];
+    for (int c = 0; c < chunks; c++) {
+      starts[c + 1] = starts[c] + counts[c];
+    }
+    units = starts[chunks] / unitSize;
+    tailStart = findDigit(units * unitSize);
+    return units;
+  }
+
+  /**
+   * Decodes the complete units counted by count().
+   *
+   * @param dst
+   *          the destination. Must have the room of the units
+   * @param dstPos
+   *          the start position in the destination
+   * @return the number of bytes decoded
+   * @throws IOException
+   *           If a chunk fails
+   */
+  int decode(byte[] dst, int dstPos) throws IOException {
+    int chunks = starts.length - 1;
+    int[] bad = new int[chunks];
+    Arrays.fill(bad, -1);
+    executor.invoke(chunks, (c) -> {
+      bad[c] = decodeChunk(c, dst, dstPos);
+    });
+    badIndex = -1;
+    for (int c = 0; c < chunks; c++) {
+      if (bad[c] >= 0) {
+        badIndex = bad[c];
+        break;
+      }
+    }
+    return units;
+  }
+
+  /**
+   * Returns the index of the first invalid character in the complete units.
+   *
+   * @return the index in the text, or -1 if all characters are valid
+   */
+  int getBadIndex() {
+    return badIndex;
+  }
+
+  /**
+   * Returns the index of the first digit of the trailing digits that do not
+   * fill a unit.
+   *
+   * @return the index in the text, or the end index if no digits remain
+   */
+  int getTailStart() {
+    return tailStart;
+  }
+
+  /**
+   * Returns the digit value, BinUtil.DIGIT_WS for the characters to skip, or
+   * BinUtil.DIGIT_INVALID for the invalid characters.
+   */
+  private int digitAt(int i) {
+    int d = BinUtil.DIGIT_TABLE[bytes[i] & 0xFF];
+    if ((d != BinUtil.DIGIT_WS) && ((d < 0) || (d >= radix))) {
+      return (lenient ? BinUtil.DIGIT_WS : BinUtil.DIGIT_INVALID);
+    }
+    return d;
+  }
+
+  /**
+   * Returns the index of the k-th digit in the text, or the end index if k is
+   * the number of the digits.
+   */
+  private int findDigit(int k) {
+    int chunks = starts.length - 1;
+    for (int c = 0; c < chunks; c++) {
+      if (k < starts[c + 1]) {
+        int n = k - starts[c];
+        for (int i = start + c * CHUNK_SIZE;; i++) {
+          if (digitAt(i) != BinUtil.DIGIT_WS) {
+            if (n == 0) {
+              return i;
+            }
+            n--;
+          }
+        }
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Decodes the units that start in the chunk.
+   *
+   * @return the index of the first invalid character, or -1
+   */
+  private int decodeChunk(int c, byte[] dst, int dstPos) {
+    int unit = (starts[c] + unitSize - 1) / unitSize;
+    int lastUnit = Math.min((starts[c + 1] + unitSize - 1) / unitSize, units);
+    if (unit >= lastUnit) {
+      return -1;
+    }
+    int i = start + c * CHUNK_SIZE;
+    // the digits of the unit started in the previous chunk
+    int skip = unit * unitSize - starts[c];
+    while (skip > 0) {
+      if (digitAt(i++) != BinUtil.DIGIT_WS) {
+        skip--;
+      }
+    }
+    boolean hexCells = (radix == 16) && (unitSize == 2);
+    int p = dstPos + unit;
+    int stop = dstPos + lastUnit;
+    int value = 0;
+    int digits = 0;
+    int badPos = -1;
+    while (p < stop) {
+      if (hexCells && (digits == 0) && (end - i >= FAST_PATH_MIN_LENGTH)) {
+        // the regular run of "01 02 03 ..." goes through the kernel
+        int count = Math.min((end - i) / 3, stop - p);
+        int n = CodecKernel.decodeHexCells(bytes, i, count, dst, p);
+        p += n;
+        i += n * 3;
+        if (p == stop) {
+          break;
+        }
+      }
+      int d = digitAt(i++);
+      if (d == BinUtil.DIGIT_WS) {
+        continue;
+      }
+      if (d == BinUtil.DIGIT_INVALID) {
+        if (badPos < 0) {
+          badPos = i - 1;
+        }
+        d = 0;
+      }
+      value = value * radix + d;
+      if (++digits == unitSize) {
+        if (badPos >= 0) {
+          return badPos;
+        }
+        dst[p++] = (byte) value;
+        value = 0;
+        digits = 0;
+      }
+    }
+    return -1;
+  }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An input stream that reads ahead the underlying stream on a background
+ * thread.<br>
+ * The reader thread fills the buffers while the consumer is processing the
+ * previous ones, so that the I/O wait and the conversion overlap. The
+ * underlying stream is not closed by this stream.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+  private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+  private final InputStream in;
+  private final BlockingQueue<ByteBuffer> filled;
+  private final BlockingQueue<ByteBuffer> free;
+  private final Thread reader;
+  private volatile IOException error;
+  private ByteBuffer current;
+  private boolean eof;
+
+  /**
+   * Starts reading ahead the stream.
+   *
+   * @param in
+   *          the underlying stream
+   * @param bufferCount
+   *          the number of buffers
+   * @param bufferSize
+   *          the size of each buffer in bytes
+   */
+  public ReadAheadInputStream(InputStream in, int bufferCount, int bufferSize) {
+    this.in = in;
+    this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+    this.free = new ArrayBlockingQueue<>(bufferCount);
+    for (int i = 0; i < bufferCount; i++) {
+      free.add(BufferPool.getDefault().get(bufferSize));
+    }
+    reader = new Thread(this::fill, "binconv-reader");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  private void fill() {
+    try {
+      while (true) {
+        ByteBuffer buf = free.take();
+        buf.clear();
+        int n = in.read(buf.array(), 0, buf.capacity());
+        if (n < 0) {
+          break;
+        }
+        buf.limit(n);
+        filled.put(buf);
+      }
+    } catch (IOException e) {
+      error = e;
+    } catch (InterruptedException e) {
+      return;
+    }
+    filled.offer(EOF);
+  }
+
+  private boolean nextChunk() throws IOException {
+    while ((current == null) || !current.hasRemaining()) {
+      if (eof) {
+        return false;
+      }
+      if (current != null) {
+        free.offer(current);
+        current = null;
+      }
+      ByteBuffer buf;
+      try {
+        buf = filled.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      if (buf == EOF) {
+        eof = true;
+        if (error != null) {
+          throw error;
+        }
+        return false;
+      }
+      current = buf;
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextChunk()) {
+      return -1;
+    }
+    return current.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!nextChunk()) {
+      return -1;
+    }
+    int n = current.remaining();
+    if (n > len) {
+      n = len;
+    }
+    current.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    long n = ((current == null) ? 0 : current.remaining());
+    for (ByteBuffer buf : filled) {
+      n += buf.remaining();
+    }
+    return (int) ((n > Integer.MAX_VALUE) ? Integer.MAX_VALUE : n);
+  }
+
+  /**
+   * Stops reading ahead and returns the buffers to the pool. The underlying
+   * stream is not closed.
+   */
+  @Override
+  public void close() throws IOException {
+    eof = true;
+    reader.interrupt();
+    // the buffer the reader thread is filling is left to the GC
+    BufferPool pool = BufferPool.getDefault();
+    pool.release(current);
+    current = null;
+    ByteBuffer buf;
+    while ((buf = free.poll()) != null) {
+      pool.release(buf);
+    }
+    while ((buf = filled.poll()) != null) {
+      if (buf != EOF) {
+        pool.release(buf);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Takashi Harano
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.takashiharano.binconv.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An output stream that writes behind on a background thread.<br>
+ * The filled buffers are handed over to the writer thread, so that the
+ * producer can go on while the previous buffers are being written. The
+ * underlying stream is not closed by this stream.
+ */
+public class WriteBehindOutputStream extends OutputStream {
+
+  private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+
+  private final OutputStream out;
+  private final int bufferCount;
+  private final BlockingQueue<ByteBuffer> filled;
+  private final BlockingQueue<ByteBuffer> free;
+  private final Thread writer;
+  private volatile IOException error;
+  private ByteBuffer current;
+  private boolean closed;
+
+  /**
+   * Starts the writer thread.
+   *
+   * @param out
+   *          the underlying stream
+   * @param bufferCount
+   *          the number of buffers
+   * @param bufferSize
+   *          the size of each buffer in bytes
+   */
+  public WriteBehindOutputStream(OutputStream out, int bufferCount, int bufferSize) {
+    this.out = out;
+    this.bufferCount = bufferCount;
+    this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+    this.free = new ArrayBlockingQueue<>(bufferCount);
+    for (int i = 0; i < bufferCount; i++) {
+      free.add(BufferPool.getDefault().get(bufferSize));
+    }
+    writer = new Thread(this::drain, "binconv-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private void drain() {
+    try {
+      while (true) {
+        ByteBuffer buf = filled.take();
+        if (buf == STOP) {
+          break;
+        }
+        if (error == null) {
+          try {
+            out.write(buf.array(), 0, buf.position());
+          } catch (IOException e) {
+            error = e;
+          }
+        }
+        buf.clear();
+        free.put(buf);
+      }
+    } catch (InterruptedException e) {
+      // stopped
+    }
+  }
+
+  private void checkError() throws IOException {
+    if (error != null) {
+      throw error;
+    }
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private ByteBuffer currentBuffer() throws IOException {
+    if (current == null) {
+      try {
+        current = free.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+    return current;
+  }
+
+  private void submit() throws IOException {
+    try {
+      filled.put(current);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    current = null;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    checkError();
+    ByteBuffer buf = currentBuffer();
+    buf.put((byte) b);
+    if (!buf.hasRemaining()) {
+      submit();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkError();
+    while (len > 0) {
+      ByteBuffer buf = currentBuffer();
+      int n = buf.remaining();
+      if (n > len) {
+        n = len;
+      }
+      buf.put(b, off, n);
+      off += n;
+      len -= n;
+      if (!buf.hasRemaining()) {
+        submit();
+      }
+    }
+  }
+
+  /**
+   * Waits until all the buffered data has been written, and flushes the
+   * underlying stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    checkError();
+    if ((current != null) && (current.position() > 0)) {
+      submit();
+    }
+    // all the buffers come back to the free queue when the writer is idle
+    ByteBuffer[] bufs = new ByteBuffer[bufferCount];
+    int n = 0;
+    try {
+      if (current != null) {
+        bufs[n++] = current;
+        current = null;
+      }
+      while (n < bufferCount) {
+        bufs[n++] = free.take();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } finally {
+      for (int i = 0; i < n; i++) {
+        free.offer(bufs[i]);
+      }
+    }
+    checkError();
+    out.flush();
+  }
+
+  /**
+   * Writes out the buffered data and stops the writer thread. The underlying
+   * stream is not closed.<br>
+   * If writing has already failed, the data is discarded; the error has been
+   * thrown to the caller of write or flush.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      if (error == null) {
+        flush();
+      }
+    } finally {
+      closed = true;
+      filled.offer(STOP);
+      releaseBuffers();
+    }
+  }
+
+  /**
+   * Returns the idle buffers to the pool. A buffer still held by the writer
+   * thread after an error is left to the GC.
+   */
+  private void releaseBuffers() {
+    BufferPool pool = BufferPool.getDefault();
+    ByteBuffer buf;
+    while ((buf = free.poll()) != null) {
+      pool.release(buf);
+    }
+    pool.release(current);
+    current = null;
+  }
+
+}
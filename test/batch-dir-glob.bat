@@ -0,0 +1,8 @@
+cd /d %~dp0
+cd ..\target
+java -jar binconv.jar -batch -tohex -i c:\test -glob "*.jpg" -o c:\tmp\batch-dir
+java -jar binconv.jar -batch -fromhex -i c:\tmp\batch-dir -glob "*.hex" -o c:\tmp\batch-dir\dec
+fc /b c:\test\img.jpg c:\tmp\batch-dir\dec\img.jpg
+java -jar binconv.jar -batch -tobase64 -i c:\notfound -o c:\tmp\batch-dir
+java -jar binconv.jar -batch -tobase64
+pause
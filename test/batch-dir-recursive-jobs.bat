@@ -0,0 +1,6 @@
+cd /d %~dp0
+cd ..\target
+java -jar binconv.jar -batch -tobase64 -i c:\test -recursive -o c:\tmp\batch-tree -jobs 8
+java -jar binconv.jar -batch -frombase64 -i c:\tmp\batch-tree -glob "*.base64" -recursive -o c:\tmp\batch-tree-dec -jobs 0
+fc /b c:\test\img.jpg c:\tmp\batch-tree-dec\img.jpg
+pause
@@ -0,0 +1,6 @@
+cd /d %~dp0
+cd ..\target
+copy /y c:\test\img.jpg "c:\tmp\my photo.jpg"
+java -jar binconv.jar -batch ..\test\batch-manifest.txt
+fc /b c:\test\img.jpg c:\tmp\batch\img.jpg
+pause
@@ -0,0 +1,17 @@
+cd /d %~dp0
+cd ..\target
+java -jar binconv.jar -tobase64 -i c:\test\img.jpg -o c:\tmp\b64.txt
+java -jar binconv.jar -tobase64 -i c:\test\img.jpg -o c:\tmp\b64-threads.txt -threads 4
+fc /b c:\tmp\b64.txt c:\tmp\b64-threads.txt
+java -jar binconv.jar -tobase64 -i c:\test\img.jpg -o c:\tmp\b64-n0.txt -newline 0
+java -jar binconv.jar -tobase64 -i c:\test\img.jpg -o c:\tmp\b64-n0-threads.txt -newline 0 -threads 2
+fc /b c:\tmp\b64-n0.txt c:\tmp\b64-n0-threads.txt
+java -jar binconv.jar -tobase64 -i c:\test\img.jpg -o c:\tmp\b64-n10.txt -newline 10
+java -jar binconv.jar -tobase64 -i c:\test\img.jpg -o c:\tmp\b64-n10-threads.txt -newline 10 -threads 3
+fc /b c:\tmp\b64-n10.txt c:\tmp\b64-n10-threads.txt
+java -Xmx512m -jar binconv.jar -tobase64 -i c:\test\img.jpg -o c:\tmp\b64-maxmem.txt -threads 256 -maxmem 64M
+fc /b c:\tmp\b64.txt c:\tmp\b64-maxmem.txt
+java -jar binconv.jar -tobase64 abcdef -newline 100000001 -threads 2
+java -jar binconv.jar -tobase64 abcdef -newline 100000001 -threads 4
+java -jar binconv.jar -tobase64 abcdef -newline 2147483647 -threads 8
+pause
@@ -0,0 +1,4 @@
+cd /d %~dp0
+cd ..\target
+type c:\test\img.jpg | java -jar binconv.jar -tobase64 | java -jar binconv.jar -frombase64 -o c:\tmp\b64.jpg
+pause
@@ -0,0 +1,10 @@
+cd /d %~dp0
+cd ..\target
+java -jar binconv.jar -tohex -i c:\test\sparse.bin -o c:\tmp\hex-squeeze.txt -addr -ascii -squeeze
+java -jar binconv.jar -fromhex -i c:\tmp\hex-squeeze.txt -o c:\tmp\hex-squeeze.bin
+fc /b c:\test\sparse.bin c:\tmp\hex-squeeze.bin
+java -jar binconv.jar -tobin -i c:\test\sparse.bin -o c:\tmp\bin-squeeze.txt -addr -squeeze
+java -jar binconv.jar -frombin -i c:\tmp\bin-squeeze.txt -o c:\tmp\bin-squeeze.bin
+fc /b c:\test\sparse.bin c:\tmp\bin-squeeze.bin
+java -jar binconv.jar -tohex -i c:\test\sparse.bin -addr -squeeze -threads 4
+pause
@@ -0,0 +1,14 @@
+cd /d %~dp0
+cd ..\target
+java -jar binconv.jar -tohex -i c:\test\img.jpg -o c:\tmp\hex.txt
+java -jar binconv.jar -tohex -i c:\test\img.jpg -o c:\tmp\hex-threads.txt -threads 4
+fc /b c:\tmp\hex.txt c:\tmp\hex-threads.txt
+java -jar binconv.jar -tohex -i c:\test\img.jpg -o c:\tmp\hex-addr.txt -addr -ascii
+java -jar binconv.jar -tohex -i c:\test\img.jpg -o c:\tmp\hex-addr-threads.txt -addr -ascii -threads 4
+fc /b c:\tmp\hex-addr.txt c:\tmp\hex-addr-threads.txt
+java -jar binconv.jar -tobin -i c:\test\img.jpg -o c:\tmp\bin-addr.txt -addr
+java -jar binconv.jar -tobin -i c:\test\img.jpg -o c:\tmp\bin-addr-threads.txt -addr -threads 0
+fc /b c:\tmp\bin-addr.txt c:\tmp\bin-addr-threads.txt
+java -jar binconv.jar -fromhex -i c:\tmp\hex-threads.txt -o c:\tmp\hex-threads.jpg -threads 4
+fc /b c:\test\img.jpg c:\tmp\hex-threads.jpg
+pause
@@ -0,0 +1,4 @@
+cd /d %~dp0
+cd ..\target
+type c:\test\img.jpg | java -jar binconv.jar -tohex
+pause